@@ -0,0 +1,64 @@
+package io.github.PXWorld.benchmarks;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+import io.github.PXWorld.sim.EngineType;
+import io.github.PXWorld.sim.Particles;
+import io.github.PXWorld.sim.SimulationEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Particles in flight over an empty world, so the grid update costs next
+    to nothing and the score is the particle step. Every invocation spawns
+    a fresh cloud thrown upwards, which stays in the air for all TICKS
+    ticks. Scores are per tick; divide by the particle count to compare
+    pool sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ParticleBenchmark {
+    private static final int TICKS = 32;
+
+    @Param({"10000", "50000"})
+    public int particles;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Map map;
+    private SimulationEngine sim;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        this.map = new Map();
+        this.sim = EngineType.SCAN.create(this.map, this.threads);
+        final Particles pool = this.sim.getParticles();
+        final int sand = Material.makePixel(Material.SAND);
+        final int w = Map.getMapW() - 40;
+        for (int i = 0; i < this.particles; i++) {
+            // spread over the middle of the map, a few cells per tick up and sideways
+            final float x = 20 + (i * 7919) % w + 0.5f;
+            final float y = Map.getMapH() / 2f + (i % 64);
+            if (!pool.spawn(x, y, ((i % 9) - 4) * 0.2f, -2.5f - (i % 5) * 0.1f, sand)) {
+                throw new IllegalStateException("Particle pool too small");
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        this.sim.dispose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public Map step() {
+        for (int i = 0; i < TICKS; i++) {
+            this.sim.step();
+        }
+        return this.map;
+    }
+}
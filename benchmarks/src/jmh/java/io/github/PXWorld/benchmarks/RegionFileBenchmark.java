@@ -0,0 +1,106 @@
+package io.github.PXWorld.benchmarks;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+import io.github.PXWorld.map.RegionStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Saving and loading whole worlds through region files, from one Map
+    window (256x256) up to 16k x 16k pixels (1 GiB of chunk slots).
+    save writes dirtyPercent of the chunks of an already saved world and
+    flushes - 100 is a full save, 1 what a save after some play looks like.
+    load reopens the regions and copies every chunk out of its mapped view,
+    the same as ChunkStore.take does.
+    Scores are per call.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class RegionFileBenchmark {
+
+    @State(Scope.Thread)
+    public static class World {
+        @Param({"256", "1024", "4096", "16384"})
+        public int worldSize;
+
+        File directory;
+        RegionStore regions;
+        int chunksPerSide;
+        final int[] pixels = new int[Map.CHUNK_AREA];
+
+        @Setup(Level.Trial)
+        public void create() throws IOException {
+            this.chunksPerSide = this.worldSize / Map.CHUNK_WIDTH;
+            this.directory = Files.createTempDirectory("pxworld-bench").toFile();
+            for (int i = 0; i < this.pixels.length; i++) {
+                this.pixels[i] = Material.makePixel(i % 3 == 0 ? Material.SAND : Material.AIR);
+            }
+            this.regions = new RegionStore(this.directory);
+            for (int cy = 0; cy < this.chunksPerSide; cy++) {
+                for (int cx = 0; cx < this.chunksPerSide; cx++) {
+                    this.regions.write(cx, cy, this.pixels, 0);
+                }
+            }
+            this.regions.flush();
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            this.regions.close();
+            final File[] files = this.directory.listFiles();
+            if (files != null) {
+                for (final File f : files) {
+                    f.delete();
+                }
+            }
+            this.directory.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Dirty {
+        @Param({"100", "1"})
+        public int dirtyPercent;
+    }
+
+    @Benchmark
+    public int save(final World world, final Dirty dirty) throws IOException {
+        final int step = 100 / dirty.dirtyPercent;
+        int written = 0;
+        int n = 0;
+        for (int cy = 0; cy < world.chunksPerSide; cy++) {
+            for (int cx = 0; cx < world.chunksPerSide; cx++) {
+                if (n++ % step == 0) {
+                    world.regions.write(cx, cy, world.pixels, 0);
+                    written++;
+                }
+            }
+        }
+        world.regions.flush();
+        return written;
+    }
+
+    @Benchmark
+    public int load(final World world) throws IOException {
+        // fresh mappings, as after starting the game
+        world.regions.close();
+        final int[] dst = new int[Map.CHUNK_AREA];
+        int sum = 0;
+        for (int cy = 0; cy < world.chunksPerSide; cy++) {
+            for (int cx = 0; cx < world.chunksPerSide; cx++) {
+                final IntBuffer view = world.regions.view(cx, cy);
+                view.get(dst, 0, Map.CHUNK_AREA);
+                sum += dst[cx & (Map.CHUNK_AREA - 1)];
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.PXWorld.benchmarks;
+
+import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Scenario;
+import io.github.PXWorld.sim.EngineType;
+import io.github.PXWorld.sim.FrameExchange;
+import io.github.PXWorld.sim.SimulationEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+    CPU side of getting the world onto the GPU: publishing dirty chunks into
+    the FrameExchange and draining them into the Renderer staging buffer (the
+    per-frame path), and filling the whole material id texture
+    (Map.copyMaterialIds, done when the Renderer is created).
+    The GL calls themselves need a context and are not measured here.
+    Scores are per pixel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RenderPrepBenchmark {
+    // annotations need constants; setup() checks this against Map
+    private static final int PIXELS = 256 * 256;
+
+    private Map map;
+    private SimulationEngine sim; // only for its (empty) particles
+    private FrameExchange frames;
+    private ByteBuffer chunkStaging;
+    private int[] boxes;
+    private ByteBuffer mapStaging;
+
+    @Setup
+    public void setup() {
+        if (PIXELS != Map.getMapW() * Map.getMapH()) {
+            throw new IllegalStateException("Map size changed, update PIXELS");
+        }
+        this.map = new Map();
+        Scenario.MIXED.apply(this.map);
+        this.sim = EngineType.SCAN.create(this.map, 1);
+        this.frames = new FrameExchange(this.map);
+        this.chunkStaging = ByteBuffer.allocateDirect(PIXELS).order(ByteOrder.nativeOrder());
+        this.boxes = new int[this.map.getAllChunks().size() * 4];
+        this.mapStaging = ByteBuffer.allocateDirect(PIXELS).order(ByteOrder.nativeOrder());
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.sim.dispose();
+    }
+
+    // Every chunk fully dirty - the worst case of a frame
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public int chunkUploadPrep() {
+        final List<Chunk> chunks = this.map.getAllChunks();
+        for (int i = 0; i < chunks.size(); i++) {
+            chunks.get(i).markAllDirty();
+        }
+        this.frames.publish(chunks, this.sim.getParticles());
+        return this.frames.drainTo(this.chunkStaging, this.boxes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public ByteBuffer mapTexturePrep() {
+        this.map.copyMaterialIds(this.mapStaging);
+        return this.mapStaging;
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.PXWorld.benchmarks;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Scenario;
+import io.github.PXWorld.sim.EngineType;
+import io.github.PXWorld.sim.SimulationEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    SimulationEngine.step over the repeatable scenes in Scenario.
+    SAND_POUR is dominated by simulateFalling, WATER_BASIN by simulateFluid.
+    Every invocation starts from a fresh scene and runs TICKS ticks, and the
+    score is reported per pixel per tick, so scenes of different sizes and
+    activity can be compared directly. Every scene runs under every engine;
+    engines follow different rules, so compare them on the same scene only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SimulationBenchmark {
+    private static final int TICKS = 64;
+    // annotations need constants; setup() checks this against Map
+    private static final int PIXELS = 256 * 256;
+
+    @Param({"EMPTY", "SAND_POUR", "WATER_BASIN", "MIXED", "BONFIRE"})
+    public Scenario scenario;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"SCAN", "BIT_SAND", "BLOCK"})
+    public EngineType engine;
+
+    private Map map;
+    private SimulationEngine sim;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        if (PIXELS != Map.getMapW() * Map.getMapH()) {
+            throw new IllegalStateException("Map size changed, update PIXELS");
+        }
+        this.map = new Map();
+        this.scenario.apply(this.map);
+        this.sim = this.engine.create(this.map, this.threads);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        this.sim.dispose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS * PIXELS)
+    public Map step() {
+        for (int i = 0; i < TICKS; i++) {
+            this.sim.step();
+        }
+        return this.map;
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.PXWorld.benchmarks;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Scenario;
+import io.github.PXWorld.physics.TerrainOutlines;
+import io.github.PXWorld.sim.EngineType;
+import io.github.PXWorld.sim.SimulationEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Tracing collision outlines of the whole map (TerrainOutlines): collect
+    plus extract with every chunk queued, over a scene left to settle for
+    SETTLE_TICKS first. The score is per chunk - what the simulation thread
+    pays for every chunk whose solid cells changed in a tick.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TerrainOutlineBenchmark {
+    private static final int SETTLE_TICKS = 300;
+    // annotations need constants; setup() checks this against Map
+    private static final int CHUNKS = 16;
+
+    @Param({"SAND_POUR", "MIXED", "BONFIRE"})
+    public Scenario scenario;
+
+    private TerrainOutlines outlines;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Map map = new Map();
+        if (CHUNKS != map.getAllChunks().size()) {
+            throw new IllegalStateException("Map size changed, update CHUNKS");
+        }
+        this.scenario.apply(map);
+        final SimulationEngine sim = EngineType.SCAN.create(map, 1);
+        for (int i = 0; i < SETTLE_TICKS; i++) {
+            sim.step();
+        }
+        sim.dispose();
+        this.outlines = new TerrainOutlines(map);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public TerrainOutlines traceAll() {
+        this.outlines.requestAll();
+        this.outlines.collect();
+        this.outlines.extract();
+        return this.outlines;
+    }
+}
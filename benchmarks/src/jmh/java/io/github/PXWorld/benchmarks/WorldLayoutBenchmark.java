@@ -0,0 +1,91 @@
+package io.github.PXWorld.benchmarks;
+
+import io.github.PXWorld.map.Map;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Compares the old jagged int[MAP_H][MAP_W] world against the flat,
+    chunk-tiled array used by Map (see Map.index()).
+    Both scans walk the world chunk by chunk, bottom-to-top inside a chunk,
+    and read the three cells under every pixel - the access pattern of
+    Simulation.simulateFalling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class WorldLayoutBenchmark {
+    // annotations need constants; setup() checks these against Map
+    private static final int W = 256;
+    private static final int H = 256;
+    private static final int CW = Map.CHUNK_WIDTH;
+    private static final int CH = Map.CHUNK_HEIGHT;
+
+    private int[][] jagged;
+    private int[] tiled;
+
+    @Setup
+    public void setup() {
+        if (W != Map.getMapW() || H != Map.getMapH()) {
+            throw new IllegalStateException("Map size changed, update W and H");
+        }
+        this.jagged = new int[H][W];
+        this.tiled = new int[W * H];
+        final Random random = new Random(42);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                final int value = random.nextInt();
+                this.jagged[y][x] = value;
+                this.tiled[Map.index(x, y)] = value;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation((W - 2) * (H - 2))
+    public void jaggedChunkScan(Blackhole bh) {
+        final int[][] px = this.jagged;
+        int acc = 0;
+        for (int sy = 0; sy < H; sy += CH) {
+            for (int sx = 0; sx < W; sx += CW) {
+                for (int y = Math.min(sy + CH, H - 1) - 1; y >= Math.max(sy, 1); y--) {
+                    for (int x = Math.max(sx, 1); x < Math.min(sx + CW, W - 1); x++) {
+                        acc += px[y][x] & (px[y + 1][x] | px[y + 1][x - 1] | px[y + 1][x + 1]);
+                    }
+                }
+            }
+        }
+        bh.consume(acc);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation((W - 2) * (H - 2))
+    public void tiledChunkScan(Blackhole bh) {
+        final int[] px = this.tiled;
+        int acc = 0;
+        for (int sy = 0; sy < H; sy += CH) {
+            for (int sx = 0; sx < W; sx += CW) {
+                final int offset = Map.index(sx, sy);
+                for (int y = Math.min(sy + CH, H - 1) - 1; y >= Math.max(sy, 1); y--) {
+                    final int rowStart = offset + ((y - sy) << Map.CHUNK_SHIFT) - sx;
+                    final boolean isBottomRow = y - sy == CH - 1;
+                    for (int x = Math.max(sx, 1); x < Math.min(sx + CW, W - 1); x++) {
+                        final int i = rowStart + x;
+                        final int lx = x - sx;
+                        if (isBottomRow || lx == 0 || lx == CW - 1) {
+                            // neighbours may be in another chunk
+                            acc += px[i] &
+                                (px[Map.index(x, y + 1)] | px[Map.index(x - 1, y + 1)] | px[Map.index(x + 1, y + 1)]);
+                        } else {
+                            acc += px[i] & (px[i + CW] | px[i + CW - 1] | px[i + CW + 1]);
+                        }
+                    }
+                }
+            }
+        }
+        bh.consume(acc);
+    }
+}
@@ -2,38 +2,84 @@ package io.github.PXWorld;
 
 import com.badlogic.gdx.*;
 import com.badlogic.gdx.graphics.OrthographicCamera;
-import com.badlogic.gdx.graphics.Pixmap;
-import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.Box2DDebugRenderer;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.ScreenUtils;
-import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.BrushShape;
+import io.github.PXWorld.map.ChunkStore;
 import io.github.PXWorld.map.Map;
-import io.github.PXWorld.map.PixelBehaviour;
+import io.github.PXWorld.map.Material;
 import io.github.PXWorld.map.PixelType;
+import io.github.PXWorld.metrics.Metrics;
+import io.github.PXWorld.metrics.MetricsCsv;
+import io.github.PXWorld.physics.TerrainBodies;
+import io.github.PXWorld.physics.TerrainOutlines;
+import io.github.PXWorld.rendering.Renderer;
+import io.github.PXWorld.sim.EngineType;
+import io.github.PXWorld.sim.FrameExchange;
+import io.github.PXWorld.sim.InputQueue;
 import io.github.PXWorld.sim.Simulation;
-
-import java.util.List;
-
-import static com.badlogic.gdx.math.MathUtils.clamp;
+import io.github.PXWorld.sim.SimulationEngine;
+import io.github.PXWorld.sim.SimulationThread;
 
 
 /** {@link com.badlogic.gdx.ApplicationListener} implementation shared by all platforms. */
 public class Main extends Game implements InputProcessor {
     private SpriteBatch batch;
-    private Texture worldTexture;
     private OrthographicCamera camera;
     private OrthographicCamera uiCamera;
 
     private ShapeRenderer shapeRenderer;
 
-    private Map worldMap;
-    private Simulation sim;
+    private Renderer renderer;
 
-    private float accumulator = 0f;
-    private final float STEP = 1f / 5f; // 5 updates per second
+    private Map worldMap;
+    private SimulationEngine sim;
+    private SimulationThread simThread;
+    private FrameExchange frames;
+    private final InputQueue input = new InputQueue(1024); // everything that changes the map
+    private final Vector3 touchPoint = new Vector3();
+    private final int simulationThreads;
+    private final int ticksPerSecond;
+    private EngineType engineType; // K switches SCAN and BIT_SAND
+
+    // Rigid bodies on top of the pixels. The terrain is rebuilt from the
+    // outlines the simulation thread traces; C drops a crate at the cursor.
+    // F3 draws the bodies.
+    private static final float PHYSICS_STEP = 1f / 60f;
+    private static final int MAX_PHYSICS_STEPS = 5;
+    private static final float CRATE_SIZE = 6f; // cells
+    private static final int MAX_CRATES = 32; // the oldest goes when there are more
+    private World physicsWorld;
+    private TerrainOutlines terrainOutlines;
+    private TerrainBodies terrainBodies;
+    private Box2DDebugRenderer physicsRenderer;
+    private final Matrix4 physicsProjection = new Matrix4();
+    private final Array<Body> crates = new Array<>();
+    private float physicsTime = 0f; // not stepped yet
+
+    // F3 toggles the overlay, F4 the CSV log (see Metrics)
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Snapshot metricsSnapshot = new Metrics.Snapshot();
+    private MetricsCsv metricsCsv; // null while not logging
+    private boolean isOverlayVisible = false;
+    private BitmapFont overlayFont;
+    private final Matrix4 overlayProjection = new Matrix4();
+    private final StringBuilder overlayText = new StringBuilder(512);
+    private long lastFrameStart = 0;
+    private long lastCsvWrite = 0;
 
     private enum ElementPick {
         ELEMENT_PICK_NONE,
@@ -42,36 +88,57 @@ public class Main extends Game implements InputProcessor {
     }
 
     private ElementPick elementPick = ElementPick.ELEMENT_PICK_NONE;
+    private static final int BRUSH_RADIUS = 15;
+    // Middle click blows a hole this big, throwing pixels at up to this many cells per tick
+    private static final int EXPLOSION_RADIUS = 12;
+    private static final int EXPLOSION_STRENGTH = 6;
+    private BrushShape brushShape = BrushShape.SQUARE; // B switches
+    private boolean hasStroke = false; // a drag is in progress, strokeX,Y is its last point
+    private int strokeX;
+    private int strokeY;
     private boolean isPickerActive = false;
     Vector2 pickerCenter = new Vector2();
     float pickerRadius = 50.0f;
 
-    public void stepSimulation() {
-        sim.step(worldMap.getAllChunks());
+    public Main() {
+        this(1, 60, EngineType.SCAN);
     }
 
-    private void placePixels(final int n, final int wx, final int wy) {
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                switch (elementPick) {
-                    case ELEMENT_PICK_SAND: {
-                        worldMap.setPixel(
-                            wx+i, wy+j, PixelType.PIXEL_TYPE_SAND, Map.FLAG_B_BLOCKING | Map.FLAG_B_FALLING,
-                            Map.COLOR_SAND_RGB565);
-                        break;
-                    }
-                    case ELEMENT_PICK_WATER: {
-                        worldMap.setPixel(
-                            wx+i, wy+j, PixelType.PIXEL_TYPE_WATER, Map.FLAG_B_FLUID | Map.FLAG_B_BLOCKING | Map.FLAG_B_FALLING,
-                            Map.COLOR_WATER_RGB565);
-                        break;
-                    }
-                    default: {
-                    }
-                }
+    // simulationThreads > 1 updates chunks in parallel (see ChunkPhases)
+    // ticksPerSecond is the fixed rate of the simulation thread
+    public Main(final int simulationThreads, final int ticksPerSecond, final EngineType engineType) {
+        this.simulationThreads = simulationThreads;
+        this.ticksPerSecond = ticksPerSecond;
+        this.engineType = engineType;
+    }
 
+    // Paints the picked element from the previous drag position to wx,wy
+    private void paintTo(final int wx, final int wy) {
+        final PixelType type;
+        switch (elementPick) {
+            case ELEMENT_PICK_SAND: {
+                type = PixelType.PIXEL_TYPE_SAND;
+                break;
+            }
+            case ELEMENT_PICK_WATER: {
+                type = PixelType.PIXEL_TYPE_WATER;
+                break;
+            }
+            default: {
+                return;
             }
         }
+        final int fromX = hasStroke ? strokeX : wx;
+        final int fromY = hasStroke ? strokeY : wy;
+        // applied by the simulation at its next tick; when the queue is full
+        // the next stroke starts from the same point and covers this one
+        if (!input.offerPaint(fromX, fromY, wx, wy, BRUSH_RADIUS, brushShape,
+                Material.makePixel(type.getMaterialId()))) {
+            return;
+        }
+        strokeX = wx;
+        strokeY = wy;
+        hasStroke = true;
     }
 
     @Override
@@ -82,31 +149,48 @@ public class Main extends Game implements InputProcessor {
         this.uiCamera = new OrthographicCamera();
         this.uiCamera.setToOrtho(true, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
         this.shapeRenderer = new ShapeRenderer();
-        this.worldMap = new Map();
-        this.sim = new Simulation();
-        worldTexture = this.worldMap.getMapTexture();
-        worldTexture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+        // the world lives in region files next to the game; saved chunks are loaded back
+        this.worldMap = new Map(new ChunkStore(Gdx.files.local("world").file(), ChunkStore.DEFAULT_CAPACITY));
+        this.sim = this.engineType.create(this.worldMap, this.simulationThreads);
+        this.renderer = new Renderer(this.worldMap);
         batch = new SpriteBatch();
         Gdx.input.setInputProcessor(this);
+        this.frames = new FrameExchange(this.worldMap);
+        this.overlayFont = new BitmapFont();
+        Box2D.init();
+        this.physicsWorld = new World(new Vector2(0f, -9.81f), true);
+        this.terrainOutlines = new TerrainOutlines(this.worldMap);
+        this.terrainBodies = new TerrainBodies(this.physicsWorld, this.terrainOutlines);
+        this.physicsRenderer = new Box2DDebugRenderer();
+        this.simThread = new SimulationThread(this.worldMap, this.sim, this.frames, this.input,
+            this.metrics, this.terrainOutlines, this.ticksPerSecond);
+        this.simThread.start();
     }
 
     @Override
     public void render() {
+        final long frameStart = System.nanoTime();
         ScreenUtils.clear(0.15f, 0.15f, 0.2f, 1f);
-        stepSimulation();
-        final List<Chunk> clist = worldMap.getAllChunks();
-        for (final Chunk c : clist) { // TODO: to debug, print a red rectangle around chunks being rendered
-            if (c.getIsDirty()) {
-                Pixmap pxmap = c.getPixmap();
-                worldTexture.draw(pxmap, c.getStartX(), c.getStartY());
-                pxmap.dispose();
-            }
+        renderer.uploadFrame(frames);
+        if (lastFrameStart != 0) {
+            metrics.recordFrame(frameStart - lastFrameStart, renderer.getLastUploadChunks(),
+                renderer.getLastUploadBytes(), renderer.getLastUploadNanos());
         }
+        lastFrameStart = frameStart;
         batch.setProjectionMatrix(camera.combined);
-        batch.begin();
-        batch.draw(worldTexture, 0, 0); // we're still drawing the hole map each frame
-        // maybe redraw and clear only chunks?
-        batch.end();
+        renderer.renderAll(batch); // we're still drawing the hole map each frame
+        renderer.renderParticles(batch, frames);
+        stepPhysics(Gdx.graphics.getDeltaTime());
+        if (isOverlayVisible || metricsCsv != null) {
+            metrics.snapshot(metricsSnapshot);
+        }
+        if (isOverlayVisible) {
+            renderOverlay();
+        }
+        if (metricsCsv != null && frameStart - lastCsvWrite >= 1_000_000_000L) {
+            metricsCsv.write(System.currentTimeMillis(), metricsSnapshot);
+            lastCsvWrite = frameStart;
+        }
 
         if (this.isPickerActive) {
             shapeRenderer.setProjectionMatrix(uiCamera.combined);
@@ -149,15 +233,161 @@ public class Main extends Game implements InputProcessor {
         }
     }
 
+    // Rebuilds the terrain chunks traced since the last frame, then steps
+    // the physics world at a fixed rate
+    private void stepPhysics(final float delta) {
+        terrainBodies.update();
+        physicsTime = Math.min(physicsTime + delta, MAX_PHYSICS_STEPS * PHYSICS_STEP);
+        while (physicsTime >= PHYSICS_STEP) {
+            physicsWorld.step(PHYSICS_STEP, 6, 2);
+            physicsTime -= PHYSICS_STEP;
+        }
+    }
+
+    // Drops a crate with its centre at x,y (cells, y up like the camera)
+    private void dropCrate(final float x, final float y) {
+        if (crates.size == MAX_CRATES) {
+            physicsWorld.destroyBody(crates.removeIndex(0));
+        }
+        final BodyDef def = new BodyDef();
+        def.type = BodyDef.BodyType.DynamicBody;
+        def.position.set(x / TerrainBodies.CELLS_PER_METRE, y / TerrainBodies.CELLS_PER_METRE);
+        final Body crate = physicsWorld.createBody(def);
+        final PolygonShape shape = new PolygonShape();
+        final float half = CRATE_SIZE / 2f / TerrainBodies.CELLS_PER_METRE;
+        shape.setAsBox(half, half);
+        crate.createFixture(shape, 1f);
+        shape.dispose();
+        crates.add(crate);
+    }
+
+    // Red rectangles around the chunk boxes uploaded this frame, the
+    // physics bodies and the last metrics snapshot in the top left corner
+    private void renderOverlay() {
+        physicsRenderer.render(physicsWorld,
+            physicsProjection.set(camera.combined).scl(TerrainBodies.CELLS_PER_METRE));
+        if (renderer.getLastUploadChunks() > 0) {
+            final int[] boxes = renderer.getLastUploadBoxes();
+            shapeRenderer.setProjectionMatrix(camera.combined);
+            shapeRenderer.begin(ShapeRenderer.ShapeType.Line);
+            shapeRenderer.setColor(1f, 0f, 0f, 1f);
+            for (int b = 0; b < boxes.length; b += 4) {
+                if (boxes[b + 2] < boxes[b]) {
+                    continue;
+                }
+                // world y grows down, the camera's up
+                shapeRenderer.rect(boxes[b], Map.getMapH() - 1 - boxes[b + 3],
+                    boxes[b + 2] - boxes[b] + 1, boxes[b + 3] - boxes[b + 1] + 1);
+            }
+            shapeRenderer.end();
+        }
+        final Metrics.Snapshot m = metricsSnapshot;
+        final StringBuilder t = overlayText;
+        t.setLength(0);
+        t.append("tick p50/p95/max ").append(m.tickP50Nanos / 1000).append('/')
+            .append(m.tickP95Nanos / 1000).append('/').append(m.tickMaxNanos / 1000).append(" us\n");
+        t.append("chunks scanned/awake ").append(m.scannedChunks).append('/').append(m.awakeChunks)
+            .append(", moved ").append(m.movedPixels).append(", ").append(engineType).append('\n');
+        t.append("frame p50/p95/p99 ").append(m.frameP50Nanos / 1000).append('/')
+            .append(m.frameP95Nanos / 1000).append('/').append(m.frameP99Nanos / 1000).append(" us\n");
+        t.append(renderer.getIsUsingPbo() ? "pbo" : "direct").append(" upload ").append(m.uploadedChunks)
+            .append(" chunks, ").append(m.uploadBytes).append(" B, ").append(m.uploadNanos / 1000).append(" us");
+        if (metricsCsv != null) {
+            t.append("\nlogging csv");
+        }
+        overlayProjection.setToOrtho2D(0, 0, Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
+        batch.setProjectionMatrix(overlayProjection);
+        batch.begin();
+        overlayFont.draw(batch, t, 8, Gdx.graphics.getHeight() - 8);
+        batch.end();
+    }
+
     @Override
     public void dispose() {
+        simThread.stop();
+        input.applyTo(worldMap, sim.getParticles()); // whatever came in after the last tick
+        worldMap.save();
+        worldMap.getStore().close();
+        if (metricsCsv != null) {
+            metricsCsv.close();
+        }
         batch.dispose();
-        worldTexture.dispose();
+        renderer.dispose();
+        overlayFont.dispose();
+        sim.dispose();
+        terrainBodies.dispose();
+        physicsWorld.dispose();
+        physicsRenderer.dispose();
     }
 
     @Override
-    public boolean keyDown(int i) {
-        return false;
+    public boolean keyDown(int keycode) {
+        if (keycode == Input.Keys.F5) {
+            // only chunks changed since the last save are written
+            input.offerSave();
+            return true;
+        }
+        if (keycode == Input.Keys.F3) {
+            isOverlayVisible = !isOverlayVisible;
+            return true;
+        }
+        if (keycode == Input.Keys.F4) {
+            if (metricsCsv == null) {
+                metricsCsv = new MetricsCsv(Gdx.files.local("metrics").file(), 3600, 5);
+            } else {
+                metricsCsv.close();
+                metricsCsv = null;
+            }
+            return true;
+        }
+        if (keycode == Input.Keys.B) {
+            brushShape = brushShape == BrushShape.SQUARE ? BrushShape.CIRCLE : BrushShape.SQUARE;
+            return true;
+        }
+        if (keycode == Input.Keys.C) {
+            final Vector3 v = camera.unproject(touchPoint.set(Gdx.input.getX(), Gdx.input.getY(), 0));
+            dropCrate(v.x, v.y);
+            return true;
+        }
+        if (keycode == Input.Keys.N) {
+            renderer.setNoiseEnabled(!renderer.getIsNoiseEnabled());
+            return true;
+        }
+        if (keycode == Input.Keys.K) {
+            // A/B the bit-parallel sand kernel against the scalar one
+            if (sim instanceof Simulation) {
+                final Simulation scanner = (Simulation)sim;
+                scanner.setBitSandEnabled(!scanner.getIsBitSandEnabled());
+                engineType = scanner.getIsBitSandEnabled() ? EngineType.BIT_SAND : EngineType.SCAN;
+            }
+            return true;
+        }
+        // arrows scroll the map window over the world by one chunk
+        int dcx = 0;
+        int dcy = 0;
+        switch (keycode) {
+            case Input.Keys.LEFT: {
+                dcx = -1;
+                break;
+            }
+            case Input.Keys.RIGHT: {
+                dcx = 1;
+                break;
+            }
+            case Input.Keys.UP: {
+                dcy = -1;
+                break;
+            }
+            case Input.Keys.DOWN: {
+                dcy = 1;
+                break;
+            }
+            default: {
+                return false;
+            }
+        }
+        input.offerScroll(dcx, dcy);
+        return true;
     }
 
     @Override
@@ -176,15 +406,17 @@ public class Main extends Game implements InputProcessor {
 
         // TODO: Right click choose type - wheel
 
-        Vector3 v = new Vector3(screenX, screenY, 0);
-        camera.unproject(v);
-        int wx = clamp((int)v.x, 0, Map.getMapW()-1);
-        int wy = Map.getMapH() - 1 - clamp((int)v.y, 0, Map.getMapH()-1);
+        final Vector3 v = camera.unproject(touchPoint.set(screenX, screenY, 0));
+        // not clamped - the brush clips itself, so strokes leaving the map stay straight
+        int wx = MathUtils.floor(v.x);
+        int wy = Map.getMapH() - 1 - MathUtils.floor(v.y);
 
-        System.out.println("wx = " + wx + ", wy = " + wy);
         if (button == Input.Buttons.LEFT) {
             this.isPickerActive = false;
-            placePixels(30, wx, wy);
+            hasStroke = false;
+            paintTo(wx, wy);
+        } else if (button == Input.Buttons.MIDDLE) {
+            input.offerExplosion(wx, wy, EXPLOSION_RADIUS, EXPLOSION_STRENGTH);
         } else if (button == Input.Buttons.RIGHT) {
             // spawn circle
             // choose either sand or water
@@ -201,6 +433,7 @@ public class Main extends Game implements InputProcessor {
 
     @Override
     public boolean touchUp(int i, int i1, int i2, int i3) {
+        hasStroke = false;
         return false;
     }
 
@@ -213,12 +446,12 @@ public class Main extends Game implements InputProcessor {
     public boolean touchDragged(int screenX, int screenY, int pointer) {
         if (pointer > 0) return false;
 
-        Vector3 v = new Vector3(screenX, screenY, 0);
-        camera.unproject(v);
-        int wx = clamp((int)v.x, 0, Map.getMapW()-1);
-        int wy = Map.getMapH() - 1 - clamp((int)v.y, 0, Map.getMapH()-1);
+        final Vector3 v = camera.unproject(touchPoint.set(screenX, screenY, 0));
+        // not clamped - the brush clips itself, so strokes leaving the map stay straight
+        int wx = MathUtils.floor(v.x);
+        int wy = Map.getMapH() - 1 - MathUtils.floor(v.y);
 
-        placePixels(30, wx, wy);
+        paintTo(wx, wy);
 
         return true;
     }
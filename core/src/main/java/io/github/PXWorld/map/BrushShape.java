@@ -0,0 +1,21 @@
+package io.github.PXWorld.map;
+
+/*
+    Footprint of a brush of radius r around its centre, see Map.paintStroke.
+    With radius 0 every shape paints a one pixel wide line.
+ */
+public enum BrushShape {
+    // (2r + 1) x (2r + 1) square
+    SQUARE,
+    // disc of radius r
+    CIRCLE;
+
+    // Half width of the row dy rows away from the centre
+    int halfWidth(final int radius, final int dy) {
+        if (this == SQUARE) {
+            return radius;
+        }
+        // r * r + r rounds the disc, so small brushes don't end up diamonds
+        return (int)Math.sqrt(radius * radius + radius - dy * dy);
+    }
+}
@@ -1,7 +1,5 @@
 package io.github.PXWorld.map;
 
-import com.badlogic.gdx.graphics.Pixmap;
-
 public class Chunk {
 
     private final int startX;
@@ -10,20 +8,60 @@ public class Chunk {
     public static final int chunkWidth = Map.CHUNK_WIDTH;
     public static final int chunkHeight = Map.CHUNK_HEIGHT;
 
-    // Reference to worldPixels
-    private int[][] chunkPixels;
+    private static final int AIR_PIXEL = Material.makePixel(Material.AIR);
+    // What the simulation sees beyond the edge of the map window
+    private static final int EDGE_PIXEL = Material.makePixel(Material.CONCRETE);
+
+    // Reference to worldPixels - flat and tiled, see Map.index().
+    // This chunk is the block [offset, offset + Map.CHUNK_AREA).
+    private final int[] chunkPixels;
+    private final int offset;
+
+    // Bounding boxes are in world coordinates, inclusive on both ends.
+    // A box is empty when min > max.
+
+    // Cells changed since the last upload - the renderer only uploads this box.
+    private int dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
 
-    private boolean isDirty = false;
+    // Content changed since the chunk was last saved or loaded.
+    // Set with every markDirty, cleared only by saving.
+    private boolean isModified = false;
 
-    private boolean shouldBeProcessed = false;
+    // Rows (bit y - startY) changed since the simulation last took them, for
+    // whatever it keeps per row across ticks (see Simulation.scanChunkBits).
+    // Set with every markDirty, everything is changed at first.
+    private long changedRows = -1L;
+
+    // Cells that have to be simulated on the next scan of this chunk.
+    private int simMinX, simMinY, simMaxX, simMaxY;
+
+    // Box being scanned right now. Marks made while the chunk is scanned grow
+    // it as well, so a pixel that moves ahead of the scan is still updated
+    // in the same tick (the same as a full scan would do).
+    private int scanMinX, scanMinY, scanMaxX, scanMaxY;
+    private boolean isScanning = false;
+
+    // Awake chunks are scanned by the simulation. A chunk falls asleep after
+    // it went Simulation.SLEEP_AFTER_TICKS ticks without a single pixel moving,
+    // and is woken up by the Map whenever something touches it or its border.
+    private boolean isAwake = false;
+    private int idleTicks = 0;
+    private int movedPixels = 0; // during the last simulated tick
+    private boolean wasScanned = false; // during the last simulated tick
 
 //    Pixmap pxmap;
 
-    public Chunk(final int startX, final int startY, int[][] worldPixels) {
+    public Chunk(final int startX, final int startY, final int[] worldPixels, final int offset) {
         this.startX = startX;
         this.startY = startY;
         this.chunkPixels = worldPixels;
+        this.offset = offset;
 //        pxmap = new Pixmap();
+        clearDirty();
+        this.simMinX = this.simMinY = Integer.MAX_VALUE;
+        this.simMaxX = this.simMaxY = Integer.MIN_VALUE;
+        this.scanMinX = this.scanMinY = Integer.MAX_VALUE;
+        this.scanMaxX = this.scanMaxY = Integer.MIN_VALUE;
     }
 
     public int getStartX() {
@@ -35,73 +73,212 @@ public class Chunk {
     }
 
     public boolean getIsDirty() {
-        return this.isDirty;
+        return this.dirtyMaxX >= this.dirtyMinX;
+    }
+
+    public void markDirty(final int x, final int y) {
+        this.isModified = true;
+        this.changedRows |= 1L << (y - this.startY);
+        if (x < this.dirtyMinX) this.dirtyMinX = x;
+        if (x > this.dirtyMaxX) this.dirtyMaxX = x;
+        if (y < this.dirtyMinY) this.dirtyMinY = y;
+        if (y > this.dirtyMaxY) this.dirtyMaxY = y;
+    }
+
+    public void markDirty(final int minX, final int minY, final int maxX, final int maxY) {
+        this.isModified = true;
+        this.changedRows |= (-1L >>> (63 - (maxY - this.startY))) & (-1L << (minY - this.startY));
+        if (minX < this.dirtyMinX) this.dirtyMinX = minX;
+        if (maxX > this.dirtyMaxX) this.dirtyMaxX = maxX;
+        if (minY < this.dirtyMinY) this.dirtyMinY = minY;
+        if (maxY > this.dirtyMaxY) this.dirtyMaxY = maxY;
+    }
+
+    public void markAllDirty() {
+        this.changedRows = -1L;
+        this.dirtyMinX = this.startX;
+        this.dirtyMinY = this.startY;
+        this.dirtyMaxX = this.startX + chunkWidth - 1;
+        this.dirtyMaxY = this.startY + chunkHeight - 1;
+    }
+
+    public void clearDirty() {
+        this.dirtyMinX = this.dirtyMinY = Integer.MAX_VALUE;
+        this.dirtyMaxX = this.dirtyMaxY = Integer.MIN_VALUE;
+    }
+
+    // Returns the rows changed since the last call and forgets them
+    public long takeChangedRows() {
+        final long rows = this.changedRows;
+        this.changedRows = 0L;
+        return rows;
+    }
+
+    public int getDirtyMinX() {
+        return this.dirtyMinX;
+    }
+
+    public int getDirtyMinY() {
+        return this.dirtyMinY;
+    }
+
+    public int getDirtyMaxX() {
+        return this.dirtyMaxX;
+    }
+
+    public int getDirtyMaxY() {
+        return this.dirtyMaxY;
+    }
+
+    // Box has to be already clipped to this chunk
+    public void markSim(final int minX, final int minY, final int maxX, final int maxY) {
+        if (minX < this.simMinX) this.simMinX = minX;
+        if (maxX > this.simMaxX) this.simMaxX = maxX;
+        if (minY < this.simMinY) this.simMinY = minY;
+        if (maxY > this.simMaxY) this.simMaxY = maxY;
+        if (this.isScanning) {
+            if (minX < this.scanMinX) this.scanMinX = minX;
+            if (maxX > this.scanMaxX) this.scanMaxX = maxX;
+            if (minY < this.scanMinY) this.scanMinY = minY;
+            if (maxY > this.scanMaxY) this.scanMaxY = maxY;
+        }
+    }
+
+    // Moves the sim box into the scan box. Returns false if there is nothing to scan.
+    public boolean beginScan() {
+        this.scanMinX = this.simMinX;
+        this.scanMinY = this.simMinY;
+        this.scanMaxX = this.simMaxX;
+        this.scanMaxY = this.simMaxY;
+        this.simMinX = this.simMinY = Integer.MAX_VALUE;
+        this.simMaxX = this.simMaxY = Integer.MIN_VALUE;
+        this.isScanning = this.scanMaxX >= this.scanMinX;
+        return this.isScanning;
+    }
+
+    public void endScan() {
+        this.isScanning = false;
+    }
+
+    public int getScanMinX() {
+        return this.scanMinX;
+    }
+
+    public int getScanMinY() {
+        return this.scanMinY;
+    }
+
+    public int getScanMaxX() {
+        return this.scanMaxX;
+    }
+
+    public int getScanMaxY() {
+        return this.scanMaxY;
+    }
+
+    public boolean getIsModified() {
+        return this.isModified;
+    }
+
+    public void setIsModified(final boolean isModified) {
+        this.isModified = isModified;
+    }
+
+    public boolean getIsAwake() {
+        return this.isAwake;
     }
 
-    public void setIsDirty(final boolean isDirty) {
-        this.isDirty = isDirty;
+    public void wake() {
+        this.isAwake = true;
+        this.idleTicks = 0;
     }
 
-    public int[][] getChunkPixels() {
+    public boolean getWasScanned() {
+        return this.wasScanned;
+    }
+
+    public void setWasScanned(final boolean wasScanned) {
+        this.wasScanned = wasScanned;
+    }
+
+    public int getMovedPixels() {
+        return this.movedPixels;
+    }
+
+    // Called once per simulated tick. Returns true if the chunk went to sleep.
+    public boolean updateIdleTicks(final int movedPixels, final int sleepAfterTicks) {
+        this.movedPixels = movedPixels;
+        if (movedPixels > 0) {
+            this.idleTicks = 0;
+            return false;
+        }
+        this.idleTicks++;
+        if (this.idleTicks >= sleepAfterTicks) {
+            this.isAwake = false;
+            return true;
+        }
+        return false;
+    }
+
+    public int[] getChunkPixels() {
         return this.chunkPixels;
     }
 
+    public int getOffset() {
+        return this.offset;
+    }
+
+    // x,y are map coordinates and may lie in a neighbouring chunk, or outside
+    // the map window - which blocks like a wall
     public int getPixelData(final int x, final int y) {
-        return this.chunkPixels[y][x];
+        if (x < 0 || y < 0 || x >= Map.getMapW() || y >= Map.getMapH()) {
+            return EDGE_PIXEL;
+        }
+        return this.chunkPixels[Map.index(x, y)];
     }
 
     public void setChunkPixel(final int x, final int y, final int pixelData) {
-        this.chunkPixels[y][x] = pixelData;
-    }
-
-    // Get pixmap which can be drawn onto the worldMap texture at chunk x,y
-    public Pixmap getPixmap() {
-        Pixmap pxMap = new Pixmap(Chunk.chunkWidth, chunkHeight, Pixmap.Format.RGB565);
-        pxMap.setBlending(Pixmap.Blending.None);
-        int px = 0;
-        int py = 0;
-        for (int cy = startY; cy < startY + chunkHeight; cy++) {
-            for (int cx = startX; cx < startX + chunkWidth; cx++) {
-                pxMap.drawPixel(px, py, Map.convertFromRGB565ToRGB888(chunkPixels[cy][cx] & 0x0000FFFF));
-                px++;
-            }
-            py++;
-            px = 0;
-        }
-        return pxMap;
+        this.chunkPixels[Map.index(x, y)] = pixelData;
     }
 
     // probably checking the behavior should not be here
     // x,y should be in bound of the chunkPixels here
     public void movePixelUp(final int x, final int y) {
-        final int pixelData = this.chunkPixels[y][x];
-        this.chunkPixels[y-1][x] = pixelData;
-        this.chunkPixels[y][x] = 0;
+        final int from = Map.index(x, y);
+        this.chunkPixels[Map.index(x, y-1)] = this.chunkPixels[from];
+        this.chunkPixels[from] = AIR_PIXEL;
+    }
+
+    // Any cell to any cell, the target is overwritten
+    public void movePixelTo(final int x, final int y, final int toX, final int toY) {
+        final int from = Map.index(x, y);
+        this.chunkPixels[Map.index(toX, toY)] = this.chunkPixels[from];
+        this.chunkPixels[from] = AIR_PIXEL;
     }
 
     public void movePixelDown(final int x, final int y) {
-        final int pixelData = this.chunkPixels[y][x];
-        final int previousPixelData = 0xB7FF; // TODO: Get background / set background as member variable
-        this.chunkPixels[y+1][x] = pixelData;
-        this.chunkPixels[y][x] = previousPixelData;
+        final int from = Map.index(x, y);
+        final int previousPixelData = AIR_PIXEL; // TODO: Get background / set background as member variable
+        this.chunkPixels[Map.index(x, y+1)] = this.chunkPixels[from];
+        this.chunkPixels[from] = previousPixelData;
     }
 
 
     public void movePixelLeft(final int x, final int y) {
-        final int pixelData = this.chunkPixels[y][x];
-        final int previousPixelData = 0xB7FF; // TODO: Get background / set background as member variable
-        this.chunkPixels[y][x-1] = pixelData;
-        this.chunkPixels[y][x] = previousPixelData;
+        final int from = Map.index(x, y);
+        final int previousPixelData = AIR_PIXEL; // TODO: Get background / set background as member variable
+        this.chunkPixels[Map.index(x-1, y)] = this.chunkPixels[from];
+        this.chunkPixels[from] = previousPixelData;
     }
 
     public void movePixelRight(final int x, final int y) {
-        final int pixelData = this.chunkPixels[y][x];
-        final int previousPixelData = 0xB7FF; // TODO: Get background / set background as member variable
-        this.chunkPixels[y][x+1] = pixelData;
-        this.chunkPixels[y][x] = previousPixelData;
+        final int from = Map.index(x, y);
+        final int previousPixelData = AIR_PIXEL; // TODO: Get background / set background as member variable
+        this.chunkPixels[Map.index(x+1, y)] = this.chunkPixels[from];
+        this.chunkPixels[from] = previousPixelData;
     }
 
     public void destroyPixel(final int x, final int y) {
-        this.chunkPixels[y][x] = 0;
+        this.chunkPixels[Map.index(x, y)] = AIR_PIXEL;
     }
 }
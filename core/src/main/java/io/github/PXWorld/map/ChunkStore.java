@@ -0,0 +1,242 @@
+package io.github.PXWorld.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/*
+    Backing store for chunks outside of the Map window.
+
+    The world is unbounded and addressed by world chunk coordinates. The
+    Map only keeps a fixed window of chunks resident in its pixel array;
+    everything scrolled out of it lands here. A bounded number of cold
+    chunks is kept in memory, packed (see PackedChunk), in an LRU cache
+    indexed by chunk coordinates;
+    the least recently used ones are evicted to region files (see RegionFile).
+    Chunks that were never visited are generated on demand.
+    A cached chunk is written out only if it changed since it was last
+    saved, so flush() - and saving the world - touches only dirty chunks.
+    Memory use is bounded by the window plus the cache capacity, not by the
+    size of the world.
+ */
+public class ChunkStore {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final class Entry {
+        final PackedChunk pixels;
+        boolean isDirty;
+
+        Entry(final PackedChunk pixels, final boolean isDirty) {
+            this.pixels = pixels;
+            this.isDirty = isDirty;
+        }
+    }
+
+    private final int capacity;
+    private File directory; // created on first write when not given
+    private RegionStore regions;
+    private final LinkedHashMap<Long, Entry> cache;
+    private final int[] unpacked = new int[Map.CHUNK_AREA]; // for saving packed chunks
+    private long cachedBytes = 0;
+
+    private int evictions = 0;
+    private int diskLoads = 0;
+    private int diskWrites = 0;
+
+    // directory may be null - a temporary one is created on first write
+    public ChunkStore(final File directory, final int capacity) {
+        this.directory = directory;
+        this.capacity = Math.max(1, capacity);
+        // access ordered: iteration starts at the least recently used chunk
+        this.cache = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+        if (directory != null) {
+            this.regions = new RegionStore(directory);
+        }
+    }
+
+    public static long key(final int chunkX, final int chunkY) {
+        return ((long)chunkX << 32) | (chunkY & 0xFFFFFFFFL);
+    }
+
+    public static int keyX(final long key) {
+        return (int)(key >> 32);
+    }
+
+    public static int keyY(final long key) {
+        return (int)key;
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    // Packs Map.CHUNK_AREA ints of src starting at srcOffset into the cache.
+    // isDirty - the pixels differ from what was last saved for this chunk.
+    public void put(final int chunkX, final int chunkY, final int[] src, final int srcOffset, final boolean isDirty) {
+        final Entry entry = new Entry(PackedChunk.pack(src, srcOffset), isDirty);
+        this.cachedBytes += entry.pixels.getSizeBytes();
+        final Entry replaced = this.cache.put(key(chunkX, chunkY), entry);
+        if (replaced != null) {
+            this.cachedBytes -= replaced.pixels.getSizeBytes();
+        }
+        evictOverCapacity();
+    }
+
+    // Moves the chunk into dst at dstOffset, loading or generating it as needed.
+    // The chunk leaves the store - it becomes resident in the Map.
+    // Returns true if the chunk differs from its saved copy.
+    public boolean take(final int chunkX, final int chunkY, final int[] dst, final int dstOffset) {
+        final Entry cached = this.cache.remove(key(chunkX, chunkY));
+        if (cached != null) {
+            this.cachedBytes -= cached.pixels.getSizeBytes();
+            cached.pixels.unpack(dst, dstOffset);
+            return cached.isDirty;
+        }
+        final IntBuffer saved = view(chunkX, chunkY);
+        if (saved != null) {
+            saved.get(dst, dstOffset, Map.CHUNK_AREA);
+            this.diskLoads++;
+            return false;
+        }
+        generate(chunkX, chunkY, dst, dstOffset);
+        return true;
+    }
+
+    public boolean hasSavedChunk(final int chunkX, final int chunkY) {
+        if (this.regions == null) {
+            return false;
+        }
+        try {
+            return this.regions.hasChunk(chunkX, chunkY);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Opening region of chunk " + chunkX + "," + chunkY, e);
+        }
+    }
+
+    // Cold chunks are read straight from the mapped region file, without
+    // pulling them into the cache.
+    public int getPixel(final int chunkX, final int chunkY, final int localX, final int localY) {
+        final int i = (localY << Map.CHUNK_SHIFT) | localX;
+        final Entry cached = this.cache.get(key(chunkX, chunkY));
+        if (cached != null) {
+            return cached.pixels.get(i);
+        }
+        final IntBuffer saved = view(chunkX, chunkY);
+        if (saved != null) {
+            return saved.get(i);
+        }
+        return generatePixel(chunkY * Map.CHUNK_HEIGHT + localY);
+    }
+
+    // Writes a chunk of src straight to its region file, bypassing the cache
+    public void save(final int chunkX, final int chunkY, final int[] src, final int srcOffset) {
+        try {
+            openRegions().write(chunkX, chunkY, src, srcOffset);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Saving chunk " + chunkX + "," + chunkY, e);
+        }
+        this.diskWrites++;
+    }
+
+    // Saves every cached chunk that changed and pushes the region files to disk
+    public void flush() {
+        for (final java.util.Map.Entry<Long, Entry> e : this.cache.entrySet()) {
+            final Entry entry = e.getValue();
+            if (entry.isDirty) {
+                entry.pixels.unpack(this.unpacked, 0);
+                save(keyX(e.getKey()), keyY(e.getKey()), this.unpacked, 0);
+                entry.isDirty = false;
+            }
+        }
+        if (this.regions != null) {
+            this.regions.flush();
+        }
+    }
+
+    public void close() {
+        if (this.regions == null) {
+            return;
+        }
+        try {
+            this.regions.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Closing regions in " + this.directory, e);
+        }
+    }
+
+    public int getCachedChunks() {
+        return this.cache.size();
+    }
+
+    // Heap used by the packed cached chunks
+    public long getCachedBytes() {
+        return this.cachedBytes;
+    }
+
+    public int getEvictions() {
+        return this.evictions;
+    }
+
+    public int getDiskLoads() {
+        return this.diskLoads;
+    }
+
+    public int getDiskWrites() {
+        return this.diskWrites;
+    }
+
+    // Content of a chunk nobody has visited yet: sky above the ground level
+    // of the starting area, concrete below it.
+    public static void generate(final int chunkX, final int chunkY, final int[] dst, final int dstOffset) {
+        for (int ly = 0; ly < Map.CHUNK_HEIGHT; ly++) {
+            final int pixel = generatePixel(chunkY * Map.CHUNK_HEIGHT + ly);
+            final int rowStart = dstOffset + (ly << Map.CHUNK_SHIFT);
+            for (int lx = 0; lx < Map.CHUNK_WIDTH; lx++) {
+                dst[rowStart + lx] = pixel;
+            }
+        }
+    }
+
+    private static int generatePixel(final int worldY) {
+        return Material.makePixel(worldY > Map.getMapH() - 10 ? Material.CONCRETE : Material.AIR);
+    }
+
+    private void evictOverCapacity() {
+        final Iterator<java.util.Map.Entry<Long, Entry>> it = this.cache.entrySet().iterator();
+        while (this.cache.size() > this.capacity && it.hasNext()) {
+            final java.util.Map.Entry<Long, Entry> eldest = it.next();
+            if (eldest.getValue().isDirty) {
+                eldest.getValue().pixels.unpack(this.unpacked, 0);
+                save(keyX(eldest.getKey()), keyY(eldest.getKey()), this.unpacked, 0);
+            }
+            this.cachedBytes -= eldest.getValue().pixels.getSizeBytes();
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    private IntBuffer view(final int chunkX, final int chunkY) {
+        if (this.regions == null) {
+            return null;
+        }
+        try {
+            return this.regions.view(chunkX, chunkY);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Loading chunk " + chunkX + "," + chunkY, e);
+        }
+    }
+
+    private RegionStore openRegions() throws IOException {
+        if (this.regions == null) {
+            this.directory = Files.createTempDirectory("pxworld-chunks").toFile();
+            this.directory.deleteOnExit();
+            this.regions = new RegionStore(this.directory, true);
+        }
+        return this.regions;
+    }
+}
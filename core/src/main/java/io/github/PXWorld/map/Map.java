@@ -1,9 +1,9 @@
 package io.github.PXWorld.map;
 import com.badlogic.gdx.graphics.Color;
-import com.badlogic.gdx.graphics.Pixmap;
-import com.badlogic.gdx.graphics.Texture;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /*
@@ -12,14 +12,20 @@ import java.util.List;
     1024*1024 = 1048576
     1048576 * 8 ~= 8.3MB
     XXXXXXXX XXXXXXXX XXXXXXXX XXXXXXXX
-    TYPE     BEHAVIOR COLOR    COLOR
+    MATERIAL STATE    COLOR    COLOR
+    Material is a dense id into the Material tables, STATE is free for
+    per-pixel simulation state.
 
     MSBit can be also used to indicate that we updated the pixel already.
     This comes in handy when scanning is bottom-to-top and there will be smoke.
     It can be set when updating and unset when drawing.
 
-    Map holds mapPixels 2D array object which stores information
+    Map holds mapPixels array which stores information
     about every pixel on the map.
+    The array is flat and tiled chunk by chunk: every 64x64 chunk is one
+    contiguous block of CHUNK_AREA ints, stored row by row, and the blocks
+    follow each other in the same order as the chunks list. Use index(x, y)
+    to find a pixel.
     It facilitates ways to modify it in a controlled manner.
 
     We iterate on every chunk - whenever there's update, we redraw only that part of the screen.
@@ -33,45 +39,61 @@ public class Map {
     private static final int MAP_H = 256;
 
     private static final int noOfChunks = MAP_W / Chunk.chunkWidth; // chunk must be a rectangle
-    private int[][] mapPixels = new int[MAP_H][MAP_W];
-    private Pixmap pixmap; // maybe get rid of that
+    private static final int noOfChunkRows = MAP_H / Chunk.chunkHeight;
+    private final int[] mapPixels = new int[MAP_W * MAP_H];
     private List<Chunk> chunks = new ArrayList<Chunk>(noOfChunks);
 
-    private static final int FLAG_T_BACKGROUND = 0x00000000;
-    private static final int FLAG_T_SAND       = 0x01000000;
-    private static final int FLAG_T_FIRE       = 0x02000000;
-    private static final int FLAG_T_WOOD       = 0x04000000;
-    private static final int FLAG_T_WATER      = 0x08000000;
-    private static final int FLAG_T_CONCRETE   = 0x10000000;
-    /*
-        The problem with these now is that these are not single bit values.
-        It could be fine if behaviours were not meant to be logically added.
-        We do not have to have 2^8 types. Let's have 2^5 = 32 types and see OR
-        for now, do not do anything.
-     */
-
-    // TODO: Getters for these
-    public static final int FLAG_B_STATIC     = 0x00000000; // do not block
-    public static final int FLAG_B_FALLING    = 0x00010000;
-    public static final int FLAG_B_BLOCKING   = 0x00010000 << 1;
-    public static final int FLAG_B_FLUID      = 0x00010000 << 2;
-    public static final int FLAG_B_SMOKE      = 0x00010000 << 3;
-    public static final int FLAG_B_OBJECT     = 0x00010000 << 4; // maybe objects will have a class?
+    // The Map is a window onto an unbounded world: the chunk at window chunk
+    // coordinates 0,0 is the world chunk originChunkX, originChunkY. Chunks
+    // scrolled out of the window are kept by the store.
+    private final ChunkStore store;
+    private int originChunkX = 0;
+    private int originChunkY = 0;
+    private final int[] scrollScratch = new int[MAP_W * MAP_H];
+    private final boolean[] scrollModified = new boolean[noOfChunks * noOfChunkRows];
+
+    // Brush scratch, reused by every stroke: the covered x span of every row
+    // and the painted box of every chunk
+    private static final int MAX_BRUSH_RADIUS = Math.max(MAP_W, MAP_H);
+    private final int[] strokeMinX = new int[MAP_H];
+    private final int[] strokeMaxX = new int[MAP_H];
+    private final int[] strokeHalfWidth = new int[MAX_BRUSH_RADIUS + 1];
+    private final int[] strokeChunkBoxes = new int[noOfChunks * noOfChunkRows * 4];
 
     public static final int COLOR_SKY_RGB565  = 0xB7FF;
     public static final int COLOR_SAND_RGB565 = 0xFF86;
     public static final int COLOR_CONCRETE_RGB565 = 0xB5B6;
     public static  final int COLOR_WATER_RGB565 = 0x235E;
+    public static final int COLOR_WOOD_RGB565 = 0x8A22;
+    public static final int COLOR_FIRE_RGB565 = 0xFAA0;
+    public static final int COLOR_SOIL_RGB565 = 0x6A05;
+    public static final int COLOR_MUD_RGB565 = 0x4A04;
 
     public static final int COLOR_SKY_RGB888 =  0x0099FFFF;
 
-    public static final int CHUNK_WIDTH = 64;
-    public static final int CHUNK_HEIGHT = 64;
+    // Chunks are square and a power of two wide, so index() is just shifts and masks.
+    public static final int CHUNK_SHIFT = 6;
+    public static final int CHUNK_WIDTH = 1 << CHUNK_SHIFT;
+    public static final int CHUNK_HEIGHT = 1 << CHUNK_SHIFT;
+    public static final int CHUNK_AREA = CHUNK_WIDTH * CHUNK_HEIGHT;
+    private static final int CHUNK_MASK = CHUNK_WIDTH - 1;
 
     public Map() {
+        this(new ChunkStore(null, ChunkStore.DEFAULT_CAPACITY));
+    }
+
+    public Map(final ChunkStore store) {
+        this.store = store;
         this.initMap();
     }
 
+    // Position of pixel x,y in the flat, chunk-tiled pixel array
+    public static int index(final int x, final int y) {
+        return ((((y >> CHUNK_SHIFT) * noOfChunks + (x >> CHUNK_SHIFT)) << (2 * CHUNK_SHIFT))
+            | ((y & CHUNK_MASK) << CHUNK_SHIFT)
+            | (x & CHUNK_MASK));
+    }
+
     public static int convertFromRGB565ToRGB888(int c) {
         int r5 = (c >>> 11) & 0x1F;
         int g6 = (c >>> 5)  & 0x3F;
@@ -83,178 +105,388 @@ public class Map {
     }
 
     private void initMap() {
-        this.pixmap = new Pixmap(MAP_W, MAP_H, Pixmap.Format.RGB565);
+        for (int cIdy = 0; cIdy < MAP_H; cIdy+=CHUNK_HEIGHT) {
+            for (int cIdx = 0; cIdx < MAP_W; cIdx+=CHUNK_WIDTH) {
+                Chunk c = new Chunk(cIdx, cIdy, this.mapPixels, index(cIdx, cIdy));
+                chunks.add(c);
+            }
+        }
         for (int y = 0; y < MAP_H; y++) {
             for (int x = 0; x < MAP_W; x++) {
                 if ((y < 10 || y > MAP_H - 10) ||
                      x < 10 || x > MAP_W - 10) {
-                    this.setPixel(x, y,
-                        PixelType.PIXEL_TYPE_CONCRETE,
-                        Map.FLAG_B_BLOCKING,
-                        COLOR_CONCRETE_RGB565);
+                    this.setPixel(x, y, PixelType.PIXEL_TYPE_CONCRETE);
                 } else {
-                    this.mapPixels[y][x] = COLOR_SKY_RGB565;
+                    this.mapPixels[index(x, y)] = Material.makePixel(Material.AIR);
                 }
             }
         }
-        System.out.println("Creating chunks...");
-        for (int cIdy = 0; cIdy < MAP_W; cIdy+=CHUNK_HEIGHT) {
-            for (int cIdx = 0; cIdx < MAP_H; cIdx+=CHUNK_WIDTH) {
-                Chunk c = new Chunk(cIdx, cIdy, this.mapPixels);
-                chunks.add(c);
+        // chunks saved by an earlier session replace the starting area
+        boolean isLoaded = false;
+        for (final Chunk c : this.chunks) {
+            final int cx = this.originChunkX + c.getStartX() / CHUNK_WIDTH;
+            final int cy = this.originChunkY + c.getStartY() / CHUNK_HEIGHT;
+            if (this.store.hasSavedChunk(cx, cy)) {
+                c.setIsModified(this.store.take(cx, cy, this.mapPixels, c.getOffset()));
+                isLoaded = true;
             }
         }
+        if (isLoaded) {
+            wakeAll();
+        }
+    }
+
+    public void setPixel(final int x, final int y, final PixelType pxType) {
+        setPixelData(x, y, Material.makePixel(pxType.getMaterialId()));
     }
 
-    public void setPixel(final int x,
-                         final int y,
-                         final PixelType pxType,
-                         final int pixelBehaviourBitfield,
-                         final int pixelColor) {
-        final int type = getPixelType(pxType);
-        this.mapPixels[y][x] = type | pixelBehaviourBitfield | (pixelColor & 0xFFFF);
+    public void setPixelData(final int x, final int y, final int pixelData) {
+        this.mapPixels[index(x, y)] = pixelData;
+        markChanged(x, y);
     }
 
-    // update chunk?
+    // Called for every cell whose content changed. Marks the cell for upload,
+    // wakes up every chunk whose pixels may now behave differently, adds the
+    // cell with its neighbours to their sim boxes and clears their resting bits.
+    // Chunks are locked only when the neighbourhood crosses a chunk border:
+    // with the checkerboard update two chunks of the same phase can both mark
+    // a shared neighbour, while the inside of a chunk is only ever touched by
+    // the thread updating it.
+    public void markChanged(final int x, final int y) {
+        final Chunk chunk = getChunkAt(x, y);
+        final int lx = x - chunk.getStartX();
+        final int ly = y - chunk.getStartY();
+        if (lx > 0 && lx < CHUNK_WIDTH - 1 && ly > 0 && ly < CHUNK_HEIGHT - 1) {
+            // fast path - the whole neighbourhood is inside this chunk
+            final int i = index(x, y);
+            final int[] px = this.mapPixels;
+            px[i - CHUNK_WIDTH - 1] &= ~Material.STATE_RESTING;
+            px[i - CHUNK_WIDTH] &= ~Material.STATE_RESTING;
+            px[i - CHUNK_WIDTH + 1] &= ~Material.STATE_RESTING;
+            px[i - 1] &= ~Material.STATE_RESTING;
+            px[i] &= ~Material.STATE_RESTING;
+            px[i + 1] &= ~Material.STATE_RESTING;
+            px[i + CHUNK_WIDTH - 1] &= ~Material.STATE_RESTING;
+            px[i + CHUNK_WIDTH] &= ~Material.STATE_RESTING;
+            px[i + CHUNK_WIDTH + 1] &= ~Material.STATE_RESTING;
+            chunk.markDirty(x, y);
+            chunk.wake();
+            chunk.markSim(x - 1, y - 1, x + 1, y + 1);
+            return;
+        }
+        markChangedLocked(x, y);
+    }
 
-    private int getPixelType(final PixelType pxType) {
-        switch (pxType) {
-            case PIXEL_TYPE_SAND: {
-                return FLAG_T_SAND;
-            }
-            case PIXEL_TYPE_BACKGROUND: {
-                return FLAG_T_BACKGROUND;
-            }
-            case PIXEL_TYPE_FIRE: {
-                return FLAG_T_FIRE;
+    // markChanged with every chunk touched locked, for a change inside a
+    // chunk that another thread may be marking at the same time. The chunk
+    // holding x,y - where a pixel crossing a border lands - is marked dirty
+    // in the same locked step that wakes it, so it never runs or sleeps
+    // with the new pixel missing from its upload box.
+    public void markChangedLocked(final int x, final int y) {
+        final Chunk chunk = getChunkAt(x, y);
+        final int minX = Math.max(x - 1, 0);
+        final int maxX = Math.min(x + 1, MAP_W - 1);
+        final int minY = Math.max(y - 1, 0);
+        final int maxY = Math.min(y + 1, MAP_H - 1);
+        // border cells of a neighbour are only ever touched by one thread at a time
+        for (int ny = minY; ny <= maxY; ny++) {
+            for (int nx = minX; nx <= maxX; nx++) {
+                this.mapPixels[index(nx, ny)] &= ~Material.STATE_RESTING;
             }
-            case PIXEL_TYPE_WOOD: {
-                return FLAG_T_WOOD;
+        }
+        for (int cy = minY / CHUNK_HEIGHT; cy <= maxY / CHUNK_HEIGHT; cy++) {
+            for (int cx = minX / CHUNK_WIDTH; cx <= maxX / CHUNK_WIDTH; cx++) {
+                final Chunk c = getChunk(cx, cy);
+                synchronized (c) {
+                    if (c == chunk) {
+                        c.markDirty(x, y);
+                    }
+                    c.wake();
+                    c.markSim(
+                        Math.max(minX, c.getStartX()),
+                        Math.max(minY, c.getStartY()),
+                        Math.min(maxX, c.getStartX() + CHUNK_WIDTH - 1),
+                        Math.min(maxY, c.getStartY() + CHUNK_HEIGHT - 1));
+                }
             }
-            case PIXEL_TYPE_WATER: {
-                return FLAG_T_WATER;
+        }
+    }
+
+    // Fills the box x0,y0 - x1,y1 (inclusive, clipped to the map) with pixelData
+    public void fillRect(final int x0, final int y0, final int x1, final int y1, final int pixelData) {
+        final int rowMin = Math.max(0, Math.min(y0, y1));
+        final int rowMax = Math.min(MAP_H - 1, Math.max(y0, y1));
+        if (rowMin > rowMax) {
+            return;
+        }
+        Arrays.fill(this.strokeMinX, rowMin, rowMax + 1, Math.min(x0, x1));
+        Arrays.fill(this.strokeMaxX, rowMin, rowMax + 1, Math.max(x0, x1));
+        paintSpans(rowMin, rowMax, pixelData);
+    }
+
+    public void paint(final int x, final int y, final int radius, final BrushShape shape, final int pixelData) {
+        paintStroke(x, y, x, y, radius, shape, pixelData);
+    }
+
+    // Paints the brush at every point of the line x0,y0 - x1,y1, so fast drags
+    // leave no gaps. The covered span of every row is collected first and then
+    // filled once, clipped to the map, and each touched chunk is woken up and
+    // marked dirty once - the cost is the painted area plus a few operations
+    // per row and line step, no matter how much the stamps overlap.
+    // Callers hold the Map lock.
+    public void paintStroke(final int x0, final int y0, final int x1, final int y1, final int radius,
+                            final BrushShape shape, final int pixelData) {
+        final int r = Math.max(0, Math.min(radius, MAX_BRUSH_RADIUS));
+        final int rowMin = Math.max(0, Math.min(y0, y1) - r);
+        final int rowMax = Math.min(MAP_H - 1, Math.max(y0, y1) + r);
+        if (rowMin > rowMax) {
+            return;
+        }
+        Arrays.fill(this.strokeMinX, rowMin, rowMax + 1, Integer.MAX_VALUE);
+        Arrays.fill(this.strokeMaxX, rowMin, rowMax + 1, Integer.MIN_VALUE);
+        for (int dy = 0; dy <= r; dy++) {
+            this.strokeHalfWidth[dy] = shape.halfWidth(r, dy);
+        }
+        // Bresenham
+        final int dx = Math.abs(x1 - x0);
+        final int dy = -Math.abs(y1 - y0);
+        final int sx = x0 < x1 ? 1 : -1;
+        final int sy = y0 < y1 ? 1 : -1;
+        int err = dx + dy;
+        int x = x0;
+        int y = y0;
+        while (true) {
+            stamp(x, y, r, rowMin, rowMax);
+            if (x == x1 && y == y1) {
+                break;
             }
-            case PIXEL_TYPE_CONCRETE: {
-                return FLAG_T_CONCRETE;
+            final int e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x += sx;
             }
-            default: {
-                return 0;
+            if (e2 <= dx) {
+                err += dx;
+                y += sy;
             }
         }
+        paintSpans(rowMin, rowMax, pixelData);
     }
 
-    private int getPixelBehaviour(final PixelBehaviour pxBehaviour) {
-        switch (pxBehaviour) {
-            case PIXEL_BEHAVIOUR_FLUID: {
-                return FLAG_B_FLUID;
-            }
-            case PIXEL_BEHAVIOUR_SMOKE: {
-                return FLAG_B_SMOKE;
-            }
-            case PIXEL_BEHAVIOUR_OBJECT: {
-                return FLAG_B_OBJECT;
+    private void stamp(final int x, final int y, final int r, final int rowMin, final int rowMax) {
+        final int from = Math.max(y - r, rowMin);
+        final int to = Math.min(y + r, rowMax);
+        for (int row = from; row <= to; row++) {
+            final int w = this.strokeHalfWidth[Math.abs(row - y)];
+            if (x - w < this.strokeMinX[row]) this.strokeMinX[row] = x - w;
+            if (x + w > this.strokeMaxX[row]) this.strokeMaxX[row] = x + w;
+        }
+    }
+
+    // Writes the collected spans of rows rowMin - rowMax. Rows are filled one
+    // chunk row at a time (contiguous in mapPixels). Resting bits are cleared
+    // around the spans, then every chunk gets its painted box marked dirty and
+    // the box grown by one cell marked for simulation in itself and in the
+    // neighbours it reaches - the same as markChanged on every painted cell.
+    private void paintSpans(final int rowMin, final int rowMax, final int pixelData) {
+        final int[] boxes = this.strokeChunkBoxes;
+        for (int b = 0; b < boxes.length; b += 4) {
+            boxes[b] = boxes[b + 1] = Integer.MAX_VALUE;
+            boxes[b + 2] = boxes[b + 3] = Integer.MIN_VALUE;
+        }
+        final int[] px = this.mapPixels;
+        for (int y = rowMin; y <= rowMax; y++) {
+            final int lo = Math.max(0, this.strokeMinX[y]);
+            final int hi = Math.min(MAP_W - 1, this.strokeMaxX[y]);
+            if (lo > hi) {
+                continue;
             }
-            case PIXEL_BEHAVIOUR_STATIC: {
-                return FLAG_B_STATIC;
+            clearResting(y - 1, lo - 1, hi + 1);
+            clearResting(y, lo - 1, lo - 1);
+            clearResting(y, hi + 1, hi + 1);
+            clearResting(y + 1, lo - 1, hi + 1);
+            for (int x = lo; x <= hi; ) {
+                final int end = Math.min(hi, x | CHUNK_MASK);
+                final int i = index(x, y);
+                Arrays.fill(px, i, i + end - x + 1, pixelData);
+                final int b = ((y >> CHUNK_SHIFT) * noOfChunks + (x >> CHUNK_SHIFT)) * 4;
+                if (x < boxes[b]) boxes[b] = x;
+                if (y < boxes[b + 1]) boxes[b + 1] = y;
+                if (end > boxes[b + 2]) boxes[b + 2] = end;
+                if (y > boxes[b + 3]) boxes[b + 3] = y;
+                x = end + 1;
             }
-            case PIXEL_BEHAVIOUR_FALLING: {
-                return FLAG_B_FALLING;
+        }
+        for (int ci = 0; ci < this.chunks.size(); ci++) {
+            final int b = ci * 4;
+            if (boxes[b + 2] < boxes[b]) {
+                continue;
             }
-            default: {
-                return 0;
+            this.chunks.get(ci).markDirty(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+            final int minX = Math.max(boxes[b] - 1, 0);
+            final int minY = Math.max(boxes[b + 1] - 1, 0);
+            final int maxX = Math.min(boxes[b + 2] + 1, MAP_W - 1);
+            final int maxY = Math.min(boxes[b + 3] + 1, MAP_H - 1);
+            for (int cy = minY >> CHUNK_SHIFT; cy <= maxY >> CHUNK_SHIFT; cy++) {
+                for (int cx = minX >> CHUNK_SHIFT; cx <= maxX >> CHUNK_SHIFT; cx++) {
+                    final Chunk c = getChunk(cx, cy);
+                    c.wake();
+                    c.markSim(
+                        Math.max(minX, c.getStartX()),
+                        Math.max(minY, c.getStartY()),
+                        Math.min(maxX, c.getStartX() + CHUNK_WIDTH - 1),
+                        Math.min(maxY, c.getStartY() + CHUNK_HEIGHT - 1));
+                }
             }
         }
     }
 
-    public static PixelBehaviour getPixelBehaviour(final int pixelData) {
-        switch (pixelData & 0x00FF0000) {
-            case FLAG_B_FALLING: {
-                return PixelBehaviour.PIXEL_BEHAVIOUR_FALLING;
-            }
-            case FLAG_B_BLOCKING: {
-                return PixelBehaviour.PIXEL_BEHAVIOUR_BLOCKING;
-            }
-            default: {
-                return PixelBehaviour.PIXEL_BEHAVIOUR_STATIC;
-            }
+    private void clearResting(final int y, final int fromX, final int toX) {
+        if (y < 0 || y >= MAP_H) {
+            return;
+        }
+        final int to = Math.min(toX, MAP_W - 1);
+        for (int x = Math.max(fromX, 0); x <= to; x++) {
+            this.mapPixels[index(x, y)] &= ~Material.STATE_RESTING;
         }
     }
 
-    public static PixelType getPixelType(final int pixelData) {
-        switch (pixelData & 0xFF000000) {
-            case FLAG_T_CONCRETE: {
-                return PixelType.PIXEL_TYPE_CONCRETE;
-            }
-            case FLAG_T_SAND: {
-                return PixelType.PIXEL_TYPE_SAND;
-            }
-            case FLAG_T_FIRE: {
-                return PixelType.PIXEL_TYPE_FIRE;
-            }
-            case FLAG_T_WOOD: {
-                return PixelType.PIXEL_TYPE_WOOD;
+    // Moves the window by whole chunks. Chunks leaving the window go to the
+    // store, chunks entering it are taken from the store (loaded from disk or
+    // generated on first visit). Everything in the window is woken up and
+    // marked dirty, since all of it moved on screen.
+    public void scrollBy(final int dcx, final int dcy) {
+        if (dcx == 0 && dcy == 0) {
+            return;
+        }
+        System.arraycopy(this.mapPixels, 0, this.scrollScratch, 0, this.mapPixels.length);
+        for (int row = 0; row < noOfChunkRows; row++) {
+            for (int col = 0; col < noOfChunks; col++) {
+                final Chunk c = getChunk(col, row);
+                this.scrollModified[row * noOfChunks + col] = c.getIsModified();
+                final int newRow = row - dcy;
+                final int newCol = col - dcx;
+                if (newRow < 0 || newRow >= noOfChunkRows || newCol < 0 || newCol >= noOfChunks) {
+                    this.store.put(this.originChunkX + col, this.originChunkY + row,
+                        this.scrollScratch, c.getOffset(), c.getIsModified());
+                }
             }
-            case FLAG_T_WATER: {
-                return PixelType.PIXEL_TYPE_WATER;
+        }
+        this.originChunkX += dcx;
+        this.originChunkY += dcy;
+        for (int row = 0; row < noOfChunkRows; row++) {
+            for (int col = 0; col < noOfChunks; col++) {
+                final int oldRow = row + dcy;
+                final int oldCol = col + dcx;
+                final Chunk c = getChunk(col, row);
+                if (oldRow >= 0 && oldRow < noOfChunkRows && oldCol >= 0 && oldCol < noOfChunks) {
+                    System.arraycopy(this.scrollScratch, getChunk(oldCol, oldRow).getOffset(),
+                        this.mapPixels, c.getOffset(), CHUNK_AREA);
+                    c.setIsModified(this.scrollModified[oldRow * noOfChunks + oldCol]);
+                } else {
+                    c.setIsModified(this.store.take(this.originChunkX + col, this.originChunkY + row,
+                        this.mapPixels, c.getOffset()));
+                }
             }
-            default: {
-                return PixelType.PIXEL_TYPE_BACKGROUND;
+        }
+        wakeAll();
+    }
+
+    // Saves every chunk of the world that changed since it was last saved:
+    // resident chunks go straight from the pixel array into their region
+    // files, cold ones are flushed by the store. Unchanged chunks are not
+    // touched at all. Callers hold the Map lock.
+    public void save() {
+        for (final Chunk c : this.chunks) {
+            if (c.getIsModified()) {
+                this.store.save(this.originChunkX + c.getStartX() / CHUNK_WIDTH,
+                    this.originChunkY + c.getStartY() / CHUNK_HEIGHT, this.mapPixels, c.getOffset());
+                c.setIsModified(false);
             }
         }
+        this.store.flush();
     }
 
-    public List<Chunk> getAllChunks() {
-        return this.chunks;
+    // Neighbourhoods changed at the chunk borders - let everything settle again
+    private void wakeAll() {
+        for (int i = 0; i < this.mapPixels.length; i++) {
+            this.mapPixels[i] &= ~Material.STATE_RESTING;
+        }
+        for (final Chunk c : this.chunks) {
+            c.wake();
+            c.markSim(c.getStartX(), c.getStartY(),
+                c.getStartX() + CHUNK_WIDTH - 1, c.getStartY() + CHUNK_HEIGHT - 1);
+            c.markAllDirty();
+        }
     }
 
-    public Chunk getChunk(final int x, final int y) {
-        return this.chunks.get(x % noOfChunks + y % noOfChunks);
+    public int getOriginChunkX() {
+        return this.originChunkX;
     }
 
-    public int getPixel(final int x, final int y) {
-        return this.mapPixels[y][x];
+    public int getOriginChunkY() {
+        return this.originChunkY;
     }
 
-    // Now, pixmap should be disposed (deallocated) when drawn into
-    // a texture.
-    // Probably whenever there's update to the portion of the pixmap,
-    // we will create the pixmap from mapPixels, blit onto the texture
-    // and delete the pixmap
-    // But - do not create, blit and delete for each chunk!
-    // only create textures from pixmap updated pixmap
-    // after iterating through each chunk, for chunks
-    // marked as dirty!
-    // Or Pixmap shouldn't be for ALL the pixels, but
-    // only for the chunk pixels.
-    public Pixmap getPixmap() {
-        return this.pixmap;
+    public ChunkStore getStore() {
+        return this.store;
     }
 
-    public Texture getMapTexture() {
-        Pixmap pixmap = new Pixmap(MAP_W, MAP_H, Pixmap.Format.RGB565);
-        for (int y = 0; y < MAP_H; y++) {
-            for (int x = 0; x < MAP_W; x++) {
-                pixmap.drawPixel(x, y, convertFromRGB565ToRGB888(this.mapPixels[y][x] & 0x0000FFFF));
-            }
+    // x,y are world pixel coordinates. Pixels outside the window are
+    // resolved through the store by their chunk coordinates.
+    public int getWorldPixel(final int x, final int y) {
+        final int cx = Math.floorDiv(x, CHUNK_WIDTH);
+        final int cy = Math.floorDiv(y, CHUNK_HEIGHT);
+        final int col = cx - this.originChunkX;
+        final int row = cy - this.originChunkY;
+        if (col >= 0 && col < noOfChunks && row >= 0 && row < noOfChunkRows) {
+            return this.mapPixels[getChunk(col, row).getOffset() + ((y & CHUNK_MASK) << CHUNK_SHIFT) + (x & CHUNK_MASK)];
         }
-        Texture t = new Texture(pixmap);
-        pixmap.dispose();
-        return t;
+        return this.store.getPixel(cx, cy, x & CHUNK_MASK, y & CHUNK_MASK);
+    }
+
+    public static PixelType getPixelType(final int pixelData) {
+        return PixelType.fromMaterialId(Material.getId(pixelData));
+    }
+
+    public List<Chunk> getAllChunks() {
+        return this.chunks;
     }
 
-    public Texture getTextureFromChunk(final Chunk c) {
-        Pixmap pixmap = c.getPixmap();
-        Texture texture = new Texture(pixmap);
-        pixmap.dispose();
-        return texture;
+    // x,y are chunk coordinates
+    public Chunk getChunk(final int x, final int y) {
+        return this.chunks.get(y * noOfChunks + x);
     }
 
-    public void drawChunkTextureOntoWorld(final Chunk c, Texture worldTexture) {
-        // TODO
+    // x,y are pixel coordinates
+    public Chunk getChunkAt(final int x, final int y) {
+        return getChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
     }
 
-    private void deletePixmap() {
-        pixmap.dispose();
+    public int getPixel(final int x, final int y) {
+        return this.mapPixels[index(x, y)];
+    }
+
+    public int[] getPixels() {
+        return this.mapPixels;
+    }
+
+    // Map keeps no textures - it has no native resources, so it can be
+    // built and simulated headless (benchmarks, soak tests). The Renderer
+    // owns the world texture and colours it on the GPU.
+
+    // Writes the material id of every pixel into dst, row by row
+    public void copyMaterialIds(final ByteBuffer dst) {
+        int i = 0;
+        for (int y = 0; y < MAP_H; y++) {
+            for (int x = 0; x < MAP_W; x += CHUNK_WIDTH) {
+                // one row of a chunk is contiguous
+                final int rowStart = index(x, y);
+                for (int lx = 0; lx < CHUNK_WIDTH; lx++) {
+                    dst.put(i++, (byte)(this.mapPixels[rowStart + lx] >>> Material.ID_SHIFT));
+                }
+            }
+        }
     }
 
     public static int getMapW() {
@@ -0,0 +1,123 @@
+package io.github.PXWorld.map;
+
+/*
+    Material registry.
+
+    Every pixel stores a dense material id in its top byte:
+    XXXXXXXX XXXXXXXX XXXXXXXX XXXXXXXX
+    MATERIAL STATE    COLOR    COLOR
+
+    Everything the simulation needs to know about a material is kept in the
+    primitive tables below, indexed by that id. The inner loop dispatches with
+    a single array load instead of switching over enums or overlapping flags,
+    so adding a material costs nothing per pixel.
+ */
+public final class Material {
+    public static final int ID_SHIFT = 24;
+    public static final int MAX_MATERIALS = 1 << 8;
+
+    // State bits
+    // Set when a pixel failed to move and nothing around it changed since.
+    // Map.markChanged clears it for the whole neighbourhood of a change.
+    public static final int STATE_RESTING = 1 << 23;
+    // Falling speed in cells per tick, 0 - 15. Kept while a pixel falls
+    // freely, cleared when it lands.
+    public static final int STATE_VELOCITY_SHIFT = 16;
+    public static final int STATE_VELOCITY = 0xF << STATE_VELOCITY_SHIFT;
+    // State that only means something while the pixel is simulated
+    public static final int STATE_TRANSIENT = STATE_RESTING | STATE_VELOCITY;
+
+    // Behaviour bits, can be combined
+    public static final int FLAG_B_STATIC     = 0; // do not block
+    public static final int FLAG_B_FALLING    = 1;
+    public static final int FLAG_B_BLOCKING   = 1 << 1;
+    public static final int FLAG_B_FLUID      = 1 << 2;
+    public static final int FLAG_B_SMOKE      = 1 << 3;
+    public static final int FLAG_B_OBJECT     = 1 << 4; // maybe objects will have a class?
+    public static final int FLAG_B_BURNING    = 1 << 5; // heats its surroundings until it burns out
+    public static final int FLAG_B_FLAMMABLE  = 1 << 6; // set by register for FLAMMABILITY > 0
+
+    // Material ids
+    public static final int AIR      = 0;
+    public static final int SAND     = 1;
+    public static final int WATER    = 2;
+    public static final int CONCRETE = 3;
+    public static final int WOOD     = 4;
+    public static final int FIRE     = 5;
+    public static final int SOIL     = 6;
+    public static final int MUD      = 7;
+
+    public static final int[] BEHAVIOUR = new int[MAX_MATERIALS];
+    // How heavy a material is: explosions (Particles) only lift materials
+    // lighter than their limit. The engines do not sort by it.
+    public static final int[] DENSITY = new int[MAX_MATERIALS];
+    public static final int[] COLOR_RGB565 = new int[MAX_MATERIALS];
+    // 0 - never burns, 255 - catches fire immediately
+    public static final int[] FLAMMABILITY = new int[MAX_MATERIALS];
+    // Per-pixel brightness noise drawn by the renderer, 0 - flat colour, 255 - +-50%
+    public static final int[] COLOR_VARIATION = new int[MAX_MATERIALS];
+    // Fluids: how many cells a pixel can spread along its row in one tick.
+    // Has to stay below Map.CHUNK_WIDTH - 1 (see Simulation).
+    public static final int[] DISPERSION = new int[MAX_MATERIALS];
+    private static final String[] NAME = new String[MAX_MATERIALS];
+
+    static {
+        register(AIR,      "air",      FLAG_B_STATIC,                                     0,   Map.COLOR_SKY_RGB565,      0,   0,   0);
+        register(SAND,     "sand",     FLAG_B_FALLING | FLAG_B_BLOCKING,                  160, Map.COLOR_SAND_RGB565,     0,   60,  0);
+        register(WATER,    "water",    FLAG_B_FALLING | FLAG_B_FLUID | FLAG_B_BLOCKING,   100, Map.COLOR_WATER_RGB565,    0,   25,  8);
+        register(CONCRETE, "concrete", FLAG_B_BLOCKING,                                   240, Map.COLOR_CONCRETE_RGB565, 0,   0,   0);
+        register(WOOD,     "wood",     FLAG_B_BLOCKING,                                   70,  Map.COLOR_WOOD_RGB565,     120, 0,   0);
+        register(FIRE,     "fire",     FLAG_B_BURNING,                                    1,   Map.COLOR_FIRE_RGB565,     0,   0,   0);
+        register(SOIL,     "soil",     FLAG_B_FALLING | FLAG_B_BLOCKING,                  150, Map.COLOR_SOIL_RGB565,     10,  40,  0);
+        register(MUD,      "mud",      FLAG_B_FALLING | FLAG_B_BLOCKING,                  170, Map.COLOR_MUD_RGB565,      0,   0,   0);
+    }
+
+    private Material() {
+    }
+
+    private static void register(final int id, final String name, final int behaviour, final int density,
+                                 final int colorRGB565, final int flammability, final int colorVariation,
+                                 final int dispersion) {
+        NAME[id] = name;
+        BEHAVIOUR[id] = flammability > 0 ? behaviour | FLAG_B_FLAMMABLE : behaviour;
+        DENSITY[id] = density;
+        COLOR_RGB565[id] = colorRGB565;
+        FLAMMABILITY[id] = flammability;
+        COLOR_VARIATION[id] = colorVariation;
+        DISPERSION[id] = dispersion;
+    }
+
+    public static int getId(final int pixelData) {
+        return pixelData >>> ID_SHIFT;
+    }
+
+    public static int getBehaviour(final int pixelData) {
+        return BEHAVIOUR[pixelData >>> ID_SHIFT];
+    }
+
+    public static boolean isBlocking(final int pixelData) {
+        return (BEHAVIOUR[pixelData >>> ID_SHIFT] & FLAG_B_BLOCKING) != 0;
+    }
+
+    // Blocks and holds its shape - what rigid bodies collide with
+    public static boolean isSolid(final int pixelData) {
+        return (BEHAVIOUR[pixelData >>> ID_SHIFT] & (FLAG_B_BLOCKING | FLAG_B_FLUID)) == FLAG_B_BLOCKING;
+    }
+
+    public static int getVelocity(final int pixelData) {
+        return (pixelData & STATE_VELOCITY) >>> STATE_VELOCITY_SHIFT;
+    }
+
+    public static int withVelocity(final int pixelData, final int velocity) {
+        return (pixelData & ~STATE_VELOCITY) | (velocity << STATE_VELOCITY_SHIFT);
+    }
+
+    public static String getName(final int id) {
+        return NAME[id];
+    }
+
+    // Pixel of the given material with its default colour and a clear state
+    public static int makePixel(final int id) {
+        return (id << ID_SHIFT) | COLOR_RGB565[id];
+    }
+}
@@ -0,0 +1,212 @@
+package io.github.PXWorld.map;
+
+import java.util.Arrays;
+
+/*
+    Compact, read-only copy of a chunk's pixels (Map.CHUNK_AREA ints, row by row).
+
+    Most chunks away from the action are a single material, or a few of them
+    in long horizontal runs. pack() picks the smallest of:
+    UNIFORM  one pixel value for the whole chunk
+    PALETTE  up to 16 distinct values, 1, 2 or 4 bit indices packed into longs
+    RLE      value/length runs, every row starting a new run
+    DENSE    a plain copy, when nothing else is smaller
+    get() reads a pixel without expanding the chunk; unpack() expands it
+    back into the dense form.
+    Resting and velocity bits are dropped - they only matter while a chunk
+    is simulated, and chunks leaving the store are woken up anyway.
+ */
+public final class PackedChunk {
+    public static final byte KIND_UNIFORM = 0;
+    public static final byte KIND_PALETTE = 1;
+    public static final byte KIND_RLE = 2;
+    public static final byte KIND_DENSE = 3;
+
+    private static final int MAX_PALETTE = 16;
+
+    private final byte kind;
+    private final int value;         // UNIFORM
+    private final int[] values;      // PALETTE: palette, RLE: run values, DENSE: pixels
+    private final long[] indices;    // PALETTE
+    private final int bitsPerIndex;  // PALETTE
+    private final short[] runEnds;   // RLE: end (exclusive) of every run within its row
+    private final short[] rowStarts; // RLE: first run of every row
+
+    private PackedChunk(final byte kind, final int value, final int[] values, final long[] indices,
+                        final int bitsPerIndex, final short[] runEnds, final short[] rowStarts) {
+        this.kind = kind;
+        this.value = value;
+        this.values = values;
+        this.indices = indices;
+        this.bitsPerIndex = bitsPerIndex;
+        this.runEnds = runEnds;
+        this.rowStarts = rowStarts;
+    }
+
+    public static PackedChunk pack(final int[] src, final int offset) {
+        final int[] palette = new int[MAX_PALETTE];
+        int paletteSize = 0;
+        int runs = 0;
+        for (int ly = 0; ly < Map.CHUNK_HEIGHT; ly++) {
+            final int rowStart = offset + (ly << Map.CHUNK_SHIFT);
+            int previous = 0;
+            for (int lx = 0; lx < Map.CHUNK_WIDTH; lx++) {
+                final int pixel = src[rowStart + lx] & ~Material.STATE_TRANSIENT;
+                if (lx == 0 || pixel != previous) {
+                    runs++;
+                    previous = pixel;
+                    if (paletteSize <= MAX_PALETTE && indexOf(palette, paletteSize, pixel) < 0) {
+                        if (paletteSize < MAX_PALETTE) {
+                            palette[paletteSize] = pixel;
+                        }
+                        paletteSize++; // MAX_PALETTE + 1 means too many
+                    }
+                }
+            }
+        }
+        if (paletteSize == 1) {
+            return new PackedChunk(KIND_UNIFORM, palette[0], null, null, 0, null, null);
+        }
+        final int bits = paletteSize <= 2 ? 1 : paletteSize <= 4 ? 2 : 4;
+        final int paletteBytes = paletteSize <= MAX_PALETTE
+            ? paletteSize * 4 + Map.CHUNK_AREA * bits / 8 : Integer.MAX_VALUE;
+        final int rleBytes = runs * 6 + Map.CHUNK_HEIGHT * 2;
+        final int denseBytes = Map.CHUNK_AREA * 4;
+        if (paletteBytes <= rleBytes && paletteBytes < denseBytes) {
+            return packPalette(src, offset, palette, paletteSize, bits);
+        }
+        if (rleBytes < denseBytes) {
+            return packRle(src, offset, runs);
+        }
+        final int[] dense = new int[Map.CHUNK_AREA];
+        for (int i = 0; i < Map.CHUNK_AREA; i++) {
+            dense[i] = src[offset + i] & ~Material.STATE_TRANSIENT;
+        }
+        return new PackedChunk(KIND_DENSE, 0, dense, null, 0, null, null);
+    }
+
+    private static int indexOf(final int[] palette, final int size, final int pixel) {
+        for (int i = 0; i < size; i++) {
+            if (palette[i] == pixel) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static PackedChunk packPalette(final int[] src, final int offset, final int[] palette,
+                                           final int paletteSize, final int bits) {
+        final int perLong = 64 / bits;
+        final long[] indices = new long[Map.CHUNK_AREA / perLong];
+        int last = 0;
+        int lastIndex = 0;
+        for (int i = 0; i < Map.CHUNK_AREA; i++) {
+            final int pixel = src[offset + i] & ~Material.STATE_TRANSIENT;
+            if (i == 0 || pixel != last) {
+                lastIndex = indexOf(palette, paletteSize, pixel);
+                last = pixel;
+            }
+            indices[i / perLong] |= (long)lastIndex << ((i % perLong) * bits);
+        }
+        final int[] values = new int[paletteSize];
+        System.arraycopy(palette, 0, values, 0, paletteSize);
+        return new PackedChunk(KIND_PALETTE, 0, values, indices, bits, null, null);
+    }
+
+    private static PackedChunk packRle(final int[] src, final int offset, final int runs) {
+        final int[] values = new int[runs];
+        final short[] runEnds = new short[runs];
+        final short[] rowStarts = new short[Map.CHUNK_HEIGHT];
+        int run = -1;
+        for (int ly = 0; ly < Map.CHUNK_HEIGHT; ly++) {
+            final int rowStart = offset + (ly << Map.CHUNK_SHIFT);
+            rowStarts[ly] = (short)(run + 1);
+            for (int lx = 0; lx < Map.CHUNK_WIDTH; lx++) {
+                final int pixel = src[rowStart + lx] & ~Material.STATE_TRANSIENT;
+                if (lx == 0 || pixel != values[run]) {
+                    run++;
+                    values[run] = pixel;
+                }
+                runEnds[run] = (short)(lx + 1);
+            }
+        }
+        return new PackedChunk(KIND_RLE, 0, values, null, 0, runEnds, rowStarts);
+    }
+
+    public byte getKind() {
+        return this.kind;
+    }
+
+    // i is the position inside the chunk, (localY << Map.CHUNK_SHIFT) | localX
+    public int get(final int i) {
+        switch (this.kind) {
+            case KIND_UNIFORM:
+                return this.value;
+            case KIND_PALETTE: {
+                final int perLong = 64 / this.bitsPerIndex;
+                final int index = (int)(this.indices[i / perLong] >>> ((i % perLong) * this.bitsPerIndex))
+                    & ((1 << this.bitsPerIndex) - 1);
+                return this.values[index];
+            }
+            case KIND_RLE: {
+                final int lx = i & (Map.CHUNK_WIDTH - 1);
+                int run = this.rowStarts[i >> Map.CHUNK_SHIFT];
+                while (this.runEnds[run] <= lx) {
+                    run++;
+                }
+                return this.values[run];
+            }
+            default:
+                return this.values[i];
+        }
+    }
+
+    // Expands the chunk into dst at dstOffset
+    public void unpack(final int[] dst, final int dstOffset) {
+        switch (this.kind) {
+            case KIND_UNIFORM: {
+                Arrays.fill(dst, dstOffset, dstOffset + Map.CHUNK_AREA, this.value);
+                break;
+            }
+            case KIND_PALETTE: {
+                final int bits = this.bitsPerIndex;
+                final int perLong = 64 / bits;
+                final long mask = (1L << bits) - 1;
+                int i = dstOffset;
+                for (final long word : this.indices) {
+                    for (int k = 0; k < perLong; k++) {
+                        dst[i++] = this.values[(int)((word >>> (k * bits)) & mask)];
+                    }
+                }
+                break;
+            }
+            case KIND_RLE: {
+                int i = dstOffset;
+                for (int ly = 0; ly < Map.CHUNK_HEIGHT; ly++) {
+                    final int end = ly + 1 < Map.CHUNK_HEIGHT ? this.rowStarts[ly + 1] : this.values.length;
+                    int lx = 0;
+                    for (int run = this.rowStarts[ly]; run < end; run++) {
+                        final int to = this.runEnds[run];
+                        Arrays.fill(dst, i + lx, i + to, this.values[run]);
+                        lx = to;
+                    }
+                    i += Map.CHUNK_WIDTH;
+                }
+                break;
+            }
+            default: {
+                System.arraycopy(this.values, 0, dst, dstOffset, Map.CHUNK_AREA);
+                break;
+            }
+        }
+    }
+
+    // Approximate heap footprint of the packed data
+    public int getSizeBytes() {
+        int size = 16;
+        if (this.values != null) size += this.values.length * 4;
+        if (this.indices != null) size += this.indices.length * 8;
+        if (this.runEnds != null) size += this.runEnds.length * 2 + this.rowStarts.length * 2;
+        return size;
+    }
+}
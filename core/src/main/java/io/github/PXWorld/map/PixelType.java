@@ -1,10 +1,36 @@
 package io.github.PXWorld.map;
 
 public enum PixelType {
-    PIXEL_TYPE_SAND,
-    PIXEL_TYPE_WATER,
-    PIXEL_TYPE_FIRE,
-    PIXEL_TYPE_WOOD,
-    PIXEL_TYPE_BACKGROUND,
-    PIXEL_TYPE_CONCRETE
+    PIXEL_TYPE_SAND(Material.SAND),
+    PIXEL_TYPE_WATER(Material.WATER),
+    PIXEL_TYPE_FIRE(Material.FIRE),
+    PIXEL_TYPE_WOOD(Material.WOOD),
+    PIXEL_TYPE_BACKGROUND(Material.AIR),
+    PIXEL_TYPE_CONCRETE(Material.CONCRETE),
+    PIXEL_TYPE_SOIL(Material.SOIL),
+    PIXEL_TYPE_MUD(Material.MUD);
+
+    private static final PixelType[] byMaterial = new PixelType[Material.MAX_MATERIALS];
+
+    static {
+        for (final PixelType type : values()) {
+            byMaterial[type.materialId] = type;
+        }
+    }
+
+    private final int materialId;
+
+    PixelType(final int materialId) {
+        this.materialId = materialId;
+    }
+
+    public int getMaterialId() {
+        return this.materialId;
+    }
+
+    // Unregistered ids read as background
+    public static PixelType fromMaterialId(final int materialId) {
+        final PixelType type = byMaterial[materialId];
+        return type != null ? type : PIXEL_TYPE_BACKGROUND;
+    }
 }
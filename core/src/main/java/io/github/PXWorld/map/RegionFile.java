@@ -0,0 +1,138 @@
+package io.github.PXWorld.map;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+    One region file holds a REGION_SIZE x REGION_SIZE grid of chunks.
+
+    Layout (little endian):
+    0                   magic "PXRG", version
+    8                   offset table - one int per chunk of the region, row by
+                        row: 0 when the chunk was never saved, otherwise its
+                        slot number + 1
+    HEADER_BYTES        slots, SLOT_BYTES each, in the order they were first
+                        written. A slot is the chunk pixels row by row, the
+                        same as a chunk block of Map.
+
+    The file is memory mapped. Saving a chunk is a bulk copy into its slot,
+    loading one hands out an IntBuffer view of the slot - nothing is parsed.
+    The mapping grows by doubling the slot capacity.
+ */
+public class RegionFile implements Closeable {
+    public static final int REGION_SHIFT = 5;
+    public static final int REGION_SIZE = 1 << REGION_SHIFT;
+    public static final int CHUNKS_PER_REGION = REGION_SIZE * REGION_SIZE;
+
+    private static final int MAGIC = 0x47525850; // "PXRG" in little endian
+    private static final int VERSION = 1;
+    private static final int TABLE_OFFSET = 8;
+    // header padded to a page so slots stay page aligned
+    private static final int HEADER_BYTES = 8192;
+    public static final int SLOT_BYTES = Map.CHUNK_AREA * 4;
+    private static final int INITIAL_SLOTS = 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private IntBuffer ints;
+    private int capacitySlots;
+    private int usedSlots = 0;
+
+    public RegionFile(final File path) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = this.file.getChannel();
+        final boolean isNew = this.channel.size() == 0;
+        if (isNew) {
+            this.capacitySlots = INITIAL_SLOTS;
+        } else {
+            this.capacitySlots = (int)Math.max(0, (this.channel.size() - HEADER_BYTES) / SLOT_BYTES);
+        }
+        map();
+        if (isNew) {
+            this.ints.put(0, MAGIC);
+            this.ints.put(1, VERSION);
+        } else {
+            if (this.ints.get(0) != MAGIC || this.ints.get(1) != VERSION) {
+                close();
+                throw new IOException("Not a PXWorld region file: " + path);
+            }
+            for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+                this.usedSlots = Math.max(this.usedSlots, this.ints.get(TABLE_OFFSET / 4 + i));
+            }
+        }
+    }
+
+    private void map() throws IOException {
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+            HEADER_BYTES + (long)this.capacitySlots * SLOT_BYTES);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.ints = this.buffer.asIntBuffer();
+    }
+
+    // Chunk coordinates inside the region, 0 .. REGION_SIZE - 1
+    private static int tableIndex(final int localX, final int localY) {
+        return TABLE_OFFSET / 4 + (localY << REGION_SHIFT) + localX;
+    }
+
+    private static int slotStart(final int slot) {
+        return (HEADER_BYTES + slot * SLOT_BYTES) / 4;
+    }
+
+    public boolean hasChunk(final int localX, final int localY) {
+        return this.ints.get(tableIndex(localX, localY)) != 0;
+    }
+
+    // Zero-copy view of the saved chunk, or null if it was never saved.
+    // Valid until the next write that grows the file.
+    public IntBuffer view(final int localX, final int localY) {
+        final int entry = this.ints.get(tableIndex(localX, localY));
+        if (entry == 0) {
+            return null;
+        }
+        final IntBuffer view = this.ints.duplicate();
+        final int start = slotStart(entry - 1);
+        view.limit(start + Map.CHUNK_AREA);
+        view.position(start);
+        return view.slice();
+    }
+
+    // Writes Map.CHUNK_AREA ints of src starting at srcOffset into the chunk slot
+    public void write(final int localX, final int localY, final int[] src, final int srcOffset) throws IOException {
+        final int index = tableIndex(localX, localY);
+        int entry = this.ints.get(index);
+        if (entry == 0) {
+            if (this.usedSlots == this.capacitySlots) {
+                this.capacitySlots = Math.max(INITIAL_SLOTS, this.capacitySlots * 2);
+                map();
+            }
+            entry = ++this.usedSlots;
+            this.ints.put(index, entry);
+        }
+        final IntBuffer slot = this.ints.duplicate();
+        slot.position(slotStart(entry - 1));
+        slot.put(src, srcOffset, Map.CHUNK_AREA);
+    }
+
+    public int getUsedSlots() {
+        return this.usedSlots;
+    }
+
+    // Pushes written slots to the disk
+    public void flush() {
+        this.buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.buffer.force();
+        this.channel.close();
+        this.file.close();
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.PXWorld.map;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+
+/*
+    A directory of RegionFiles, addressed by world chunk coordinates.
+    Region files are opened on first use and stay open until close().
+ */
+public class RegionStore implements Closeable {
+
+    private final File directory;
+    private final boolean isTemporary;
+    private final HashMap<Long, RegionFile> regions = new HashMap<Long, RegionFile>();
+
+    public RegionStore(final File directory) {
+        this(directory, false);
+    }
+
+    // isTemporary - region files are deleted when the VM exits
+    public RegionStore(final File directory, final boolean isTemporary) {
+        this.directory = directory;
+        this.isTemporary = isTemporary;
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    private RegionFile region(final int chunkX, final int chunkY, final boolean create) throws IOException {
+        final int rx = chunkX >> RegionFile.REGION_SHIFT;
+        final int ry = chunkY >> RegionFile.REGION_SHIFT;
+        final long key = ChunkStore.key(rx, ry);
+        RegionFile region = this.regions.get(key);
+        if (region == null) {
+            final File path = new File(this.directory, "r." + rx + "." + ry + ".pxr");
+            if (!create && !path.isFile()) {
+                return null;
+            }
+            if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+                throw new IOException("Cannot create " + this.directory);
+            }
+            if (this.isTemporary) {
+                path.deleteOnExit();
+            }
+            region = new RegionFile(path);
+            this.regions.put(key, region);
+        }
+        return region;
+    }
+
+    private static int local(final int chunkCoordinate) {
+        return chunkCoordinate & (RegionFile.REGION_SIZE - 1);
+    }
+
+    public boolean hasChunk(final int chunkX, final int chunkY) throws IOException {
+        final RegionFile region = region(chunkX, chunkY, false);
+        return region != null && region.hasChunk(local(chunkX), local(chunkY));
+    }
+
+    // Zero-copy view of a saved chunk, or null if it was never saved
+    public IntBuffer view(final int chunkX, final int chunkY) throws IOException {
+        final RegionFile region = region(chunkX, chunkY, false);
+        return region == null ? null : region.view(local(chunkX), local(chunkY));
+    }
+
+    public void write(final int chunkX, final int chunkY, final int[] src, final int srcOffset) throws IOException {
+        region(chunkX, chunkY, true).write(local(chunkX), local(chunkY), src, srcOffset);
+    }
+
+    public void flush() {
+        for (final RegionFile region : this.regions.values()) {
+            region.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final RegionFile region : this.regions.values()) {
+            region.close();
+        }
+        this.regions.clear();
+    }
+}
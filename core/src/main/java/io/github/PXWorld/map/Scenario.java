@@ -0,0 +1,60 @@
+package io.github.PXWorld.map;
+
+/*
+    Repeatable scenes used by the benchmarks and headless runs.
+    Every scenario starts from a freshly created Map (sky with a concrete border)
+    and is fully deterministic.
+ */
+public enum Scenario {
+    // Nothing but the border - measures the cost of an idle world
+    EMPTY,
+    // A big block of sand dropped from the top
+    SAND_POUR,
+    // A concrete basin with a body of water released above it
+    WATER_BASIN,
+    // Sand and water poured over concrete ledges
+    MIXED,
+    // A stack of wood lit at one end, with a pool of water beside it
+    BONFIRE;
+
+    public void apply(final Map map) {
+        final int w = Map.getMapW();
+        final int h = Map.getMapH();
+        switch (this) {
+            case SAND_POUR: {
+                fill(map, w / 6, 12, w - w / 6, h / 2, PixelType.PIXEL_TYPE_SAND);
+                break;
+            }
+            case WATER_BASIN: {
+                final int basinTop = h / 2;
+                fill(map, w / 4 - 4, basinTop, w / 4, h - 10, PixelType.PIXEL_TYPE_CONCRETE);
+                fill(map, w - w / 4, basinTop, w - w / 4 + 4, h - 10, PixelType.PIXEL_TYPE_CONCRETE);
+                fill(map, w / 4 + 8, 12, w - w / 4 - 8, basinTop, PixelType.PIXEL_TYPE_WATER);
+                break;
+            }
+            case MIXED: {
+                fill(map, 20, h / 3, w / 2, h / 3 + 4, PixelType.PIXEL_TYPE_CONCRETE);
+                fill(map, w / 2 + 20, 2 * h / 3, w - 20, 2 * h / 3 + 4, PixelType.PIXEL_TYPE_CONCRETE);
+                fill(map, 30, 12, w / 2 - 10, h / 3 - 10, PixelType.PIXEL_TYPE_SAND);
+                fill(map, w / 2 + 10, 12, w - 30, h / 3, PixelType.PIXEL_TYPE_WATER);
+                break;
+            }
+            case BONFIRE: {
+                fill(map, w / 8, h - 50, w / 2 + w / 8, h - 10, PixelType.PIXEL_TYPE_WOOD);
+                fill(map, w / 8 + 10, h - 90, w / 8 + 16, h - 50, PixelType.PIXEL_TYPE_WOOD);
+                fill(map, w / 8, h - 54, w / 8 + 8, h - 50, PixelType.PIXEL_TYPE_FIRE);
+                fill(map, w - w / 4 - 4, h - 40, w - w / 4, h - 10, PixelType.PIXEL_TYPE_CONCRETE);
+                fill(map, w - w / 4, h - 30, w - 10, h - 10, PixelType.PIXEL_TYPE_WATER);
+                break;
+            }
+            default: {
+            }
+        }
+    }
+
+    // Fills the box [x0, x1) x [y0, y1)
+    private static void fill(final Map map, final int x0, final int y0, final int x1, final int y1,
+                             final PixelType type) {
+        map.fillRect(x0, y0, x1 - 1, y1 - 1, Material.makePixel(type.getMaterialId()));
+    }
+}
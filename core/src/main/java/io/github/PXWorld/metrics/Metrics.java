@@ -0,0 +1,98 @@
+package io.github.PXWorld.metrics;
+
+import java.util.Arrays;
+
+/*
+    Where the time goes: per tick and per frame counters.
+
+    The simulation thread records every tick, the render thread every frame.
+    Durations are kept in fixed rings of the last WINDOW samples, everything
+    else is the value of the last tick or frame. Nothing is allocated after
+    construction - recording is a few stores under a lock that is only
+    contended while a snapshot is taken.
+ */
+public class Metrics {
+    public static final int WINDOW = 256;
+
+    // Filled by snapshot(), meant to be reused
+    public static final class Snapshot {
+        public long ticks;
+        public long tickP50Nanos, tickP95Nanos, tickMaxNanos;
+        public int awakeChunks;
+        public int scannedChunks;
+        public int movedPixels;
+
+        public long frames;
+        public long frameP50Nanos, frameP95Nanos, frameP99Nanos, frameMaxNanos;
+        public int uploadedChunks;
+        public int uploadBytes;
+        public long uploadNanos;
+    }
+
+    private final long[] tickNanos = new long[WINDOW];
+    private long ticks = 0;
+    private int awakeChunks = 0;
+    private int scannedChunks = 0;
+    private int movedPixels = 0;
+
+    private final long[] frameNanos = new long[WINDOW];
+    private long frames = 0;
+    private int uploadedChunks = 0;
+    private int uploadBytes = 0;
+    private long uploadNanos = 0;
+
+    private final long[] sorted = new long[WINDOW];
+
+    // Simulation thread, after every tick
+    public synchronized void recordTick(final long nanos, final int awakeChunks, final int scannedChunks,
+                                        final int movedPixels) {
+        this.tickNanos[(int)(this.ticks % WINDOW)] = nanos;
+        this.ticks++;
+        this.awakeChunks = awakeChunks;
+        this.scannedChunks = scannedChunks;
+        this.movedPixels = movedPixels;
+    }
+
+    // Render thread, every frame. nanos is the time since the previous frame.
+    public synchronized void recordFrame(final long nanos, final int uploadedChunks, final int uploadBytes,
+                                         final long uploadNanos) {
+        this.frameNanos[(int)(this.frames % WINDOW)] = nanos;
+        this.frames++;
+        this.uploadedChunks = uploadedChunks;
+        this.uploadBytes = uploadBytes;
+        this.uploadNanos = uploadNanos;
+    }
+
+    public synchronized void snapshot(final Snapshot out) {
+        out.ticks = this.ticks;
+        out.awakeChunks = this.awakeChunks;
+        out.scannedChunks = this.scannedChunks;
+        out.movedPixels = this.movedPixels;
+        int n = sort(this.tickNanos, this.ticks);
+        out.tickP50Nanos = percentile(n, 0.50);
+        out.tickP95Nanos = percentile(n, 0.95);
+        out.tickMaxNanos = n > 0 ? this.sorted[n - 1] : 0;
+
+        out.frames = this.frames;
+        out.uploadedChunks = this.uploadedChunks;
+        out.uploadBytes = this.uploadBytes;
+        out.uploadNanos = this.uploadNanos;
+        n = sort(this.frameNanos, this.frames);
+        out.frameP50Nanos = percentile(n, 0.50);
+        out.frameP95Nanos = percentile(n, 0.95);
+        out.frameP99Nanos = percentile(n, 0.99);
+        out.frameMaxNanos = n > 0 ? this.sorted[n - 1] : 0;
+    }
+
+    // Copies the filled part of a ring into sorted, returns its length
+    private int sort(final long[] ring, final long count) {
+        final int n = (int)Math.min(count, WINDOW);
+        System.arraycopy(ring, 0, this.sorted, 0, n);
+        Arrays.sort(this.sorted, 0, n);
+        return n;
+    }
+
+    private long percentile(final int n, final double p) {
+        return n > 0 ? this.sorted[(int)((n - 1) * p)] : 0;
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.PXWorld.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/*
+    Rolling CSV log of Metrics snapshots for offline analysis.
+
+    Every write() appends one line. After linesPerFile lines the next file is
+    started; only the last keepFiles files are kept, oldest ones are deleted.
+    Files are named metrics.<n>.csv and each starts with the header. A new
+    log continues after the highest number an earlier run left in the
+    directory, and deletes whatever of that run is now outside the last
+    keepFiles.
+ */
+public class MetricsCsv {
+    private static final String HEADER = "time_ms,ticks,tick_p50_us,tick_p95_us,tick_max_us,"
+        + "awake_chunks,scanned_chunks,moved_pixels,frames,frame_p50_us,frame_p95_us,frame_p99_us,"
+        + "frame_max_us,uploaded_chunks,upload_bytes,upload_us";
+    private static final String FILE_PREFIX = "metrics.";
+    private static final String FILE_SUFFIX = ".csv";
+
+    private final File directory;
+    private final int linesPerFile;
+    private final int keepFiles;
+    private final StringBuilder line = new StringBuilder(256);
+
+    private Writer out;
+    private int fileNumber = -1;
+    private int lines = 0;
+
+    public MetricsCsv(final File directory, final int linesPerFile, final int keepFiles) {
+        this.directory = directory;
+        this.linesPerFile = Math.max(1, linesPerFile);
+        this.keepFiles = Math.max(1, keepFiles);
+    }
+
+    public void write(final long timeMillis, final Metrics.Snapshot s) {
+        final StringBuilder b = this.line;
+        b.setLength(0);
+        b.append(timeMillis).append(',')
+            .append(s.ticks).append(',')
+            .append(s.tickP50Nanos / 1000).append(',')
+            .append(s.tickP95Nanos / 1000).append(',')
+            .append(s.tickMaxNanos / 1000).append(',')
+            .append(s.awakeChunks).append(',')
+            .append(s.scannedChunks).append(',')
+            .append(s.movedPixels).append(',')
+            .append(s.frames).append(',')
+            .append(s.frameP50Nanos / 1000).append(',')
+            .append(s.frameP95Nanos / 1000).append(',')
+            .append(s.frameP99Nanos / 1000).append(',')
+            .append(s.frameMaxNanos / 1000).append(',')
+            .append(s.uploadedChunks).append(',')
+            .append(s.uploadBytes).append(',')
+            .append(s.uploadNanos / 1000).append('\n');
+        try {
+            if (this.out == null || this.lines >= this.linesPerFile) {
+                nextFile();
+            }
+            this.out.append(b);
+            this.out.flush();
+            this.lines++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Writing metrics to " + this.directory, e);
+        }
+    }
+
+    private File file(final int number) {
+        return new File(this.directory, FILE_PREFIX + number + FILE_SUFFIX);
+    }
+
+    // n of a file named metrics.<n>.csv, -1 for anything else
+    private static int number(final String name) {
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)
+            || name.length() <= FILE_PREFIX.length() + FILE_SUFFIX.length()) {
+            return -1;
+        }
+        final String digits = name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length());
+        for (int i = 0; i < digits.length(); i++) {
+            if (digits.charAt(i) < '0' || digits.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return -1; // too long to be one of ours
+        }
+    }
+
+    private void nextFile() throws IOException {
+        close();
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create " + this.directory);
+        }
+        if (this.fileNumber < 0) {
+            // continue after the files of an earlier run, dropping the ones
+            // the new file pushes out
+            final String[] names = this.directory.list();
+            if (names == null) {
+                throw new IOException("Cannot list " + this.directory);
+            }
+            int highest = -1;
+            for (final String name : names) {
+                highest = Math.max(highest, number(name));
+            }
+            this.fileNumber = highest + 1;
+            for (final String name : names) {
+                final int n = number(name);
+                if (n >= 0 && n <= this.fileNumber - this.keepFiles) {
+                    delete(file(n));
+                }
+            }
+        } else {
+            this.fileNumber++;
+            final File old = file(this.fileNumber - this.keepFiles);
+            if (old.exists()) {
+                delete(old);
+            }
+        }
+        this.out = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(file(this.fileNumber)), StandardCharsets.UTF_8));
+        this.out.write(HEADER);
+        this.out.write('\n');
+        this.lines = 0;
+    }
+
+    private static void delete(final File file) throws IOException {
+        if (!file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+    }
+
+    public void close() {
+        if (this.out == null) {
+            return;
+        }
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Closing metrics in " + this.directory, e);
+        }
+        this.out = null;
+    }
+}
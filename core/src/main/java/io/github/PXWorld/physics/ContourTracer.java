@@ -0,0 +1,370 @@
+package io.github.PXWorld.physics;
+
+import io.github.PXWorld.map.Map;
+
+import java.util.Arrays;
+
+/*
+    Outlines of the solid cells of one chunk.
+
+    The chunk comes in as one long per row, bit x set when cell x is solid,
+    with one row and column of the neighbours before it and two of the ones
+    after it. Marching squares runs over the cell centres: a contour vertex
+    sits in the middle of every edge between a solid and an empty centre -
+    on the border of two cells - and every cell of the grid links the
+    vertices on its edges with the solid on the same side of the link. Each
+    vertex then has exactly one link out, and following them walks the
+    outlines. Saddles join the two solid corners, so cells touching only
+    diagonally end up in one outline.
+
+    The chunk owns the marching cells with their top left corner on one of
+    its own centres, plus the ones left of and above it where it has no
+    neighbour there (outside the window is empty, so outlines close at the
+    window border). An outline staying in those cells is a loop. One that
+    crosses into a neighbour's cells is an open chain instead, running from
+    the border it comes in at to the one it leaves at; the neighbour traces
+    the rest of it from the same edges, so the two meet at the same vertex
+    with no wall between them. A chain starts and ends with its ghost
+    vertices - where the outline comes from and goes to in the neighbour's
+    cells - so Box2D can smooth contacts across the join.
+
+    The outlines are simplified with Ramer-Douglas-Peucker: vertices closer
+    than TOLERANCE cells to the line through their neighbours are dropped.
+    The ends of a chain stay where they are. Loops left with less than
+    three vertices - single loose grains - are dropped as well.
+
+    Vertices are in cells relative to the chunk corner, x right and y down.
+    Flipped to y up, outlines run counter-clockwise around the solid and
+    clockwise around holes, the way Box2D wants chains to face outwards.
+    Everything is preallocated, tracing a chunk allocates nothing.
+ */
+final class ContourTracer {
+    static final float TOLERANCE = 0.5f;
+
+    // Cell centres per side: the chunk's, with one row or column before it
+    // and two after it
+    static final int SAMPLES = Map.CHUNK_WIDTH + 3;
+    // Columns of sides, outside of the chunk's
+    static final int SIDE_BEFORE = 1;
+    static final int SIDE_AFTER = 2;
+    static final int SIDE_AFTER_NEXT = 4;
+
+    private static final int CELLS = SAMPLES - 1;
+    // Edges between two samples of a row, then the ones between two samples of a column
+    private static final int ROW_EDGES = CELLS * SAMPLES;
+    private static final int EDGES = 2 * ROW_EDGES;
+    // Every edge once, and the ghost vertices of the chains: each one
+    // starts and ends on an edge of the border of the chunk's cells
+    static final int MAX_VERTICES = EDGES + 4 * CELLS;
+    static final int MAX_OUTLINES = MAX_VERTICES / 3;
+
+    // Sides of a marching squares cell
+    private static final int TOP = 0;
+    private static final int RIGHT = 1;
+    private static final int BOTTOM = 2;
+    private static final int LEFT = 3;
+
+    // Links from - to for every case, corners solid: 8 top left, 4 top
+    // right, 2 bottom right, 1 bottom left. The solid is on the same side
+    // of every link, so outlines go counter-clockwise with y up.
+    private static final int[][] LINKS = {
+        {},
+        {BOTTOM, LEFT},
+        {RIGHT, BOTTOM},
+        {RIGHT, LEFT},
+        {TOP, RIGHT},
+        {TOP, LEFT, BOTTOM, RIGHT},
+        {TOP, BOTTOM},
+        {TOP, LEFT},
+        {LEFT, TOP},
+        {BOTTOM, TOP},
+        {LEFT, BOTTOM, RIGHT, TOP},
+        {RIGHT, TOP},
+        {LEFT, RIGHT},
+        {BOTTOM, RIGHT},
+        {LEFT, BOTTOM},
+        {}
+    };
+
+    // Edge a link leaves from to the edge it goes to, -1 for none
+    private final int[] next = new int[EDGES];
+    private final boolean[] isLinkedTo = new boolean[EDGES];
+    private final int[] linked = new int[EDGES];
+    private int linkedCount = 0;
+    // First marching cell of the chunk, per axis: 0 when it owns the one before it
+    private int firstU = 1;
+    private int firstV = 1;
+
+    // One outline before simplification
+    private final float[] outlineX = new float[EDGES];
+    private final float[] outlineY = new float[EDGES];
+    private final boolean[] isKept = new boolean[EDGES];
+    private final int[] stack = new int[2 * EDGES];
+
+    // Result of the last trace: x,y pairs, the vertex each outline ends
+    // before, and whether it is a chain
+    private final float[] vertices = new float[2 * MAX_VERTICES];
+    private final int[] ends = new int[MAX_OUTLINES];
+    private final boolean[] isChain = new boolean[MAX_OUTLINES];
+    private int vertexCount = 0;
+    private int outlineCount = 0;
+
+    ContourTracer() {
+        Arrays.fill(this.next, -1);
+    }
+
+    float[] getVertices() {
+        return this.vertices;
+    }
+
+    int[] getEnds() {
+        return this.ends;
+    }
+
+    boolean[] getIsChain() {
+        return this.isChain;
+    }
+
+    int getVertexCount() {
+        return this.vertexCount;
+    }
+
+    // Traces SAMPLES rows from the one above the chunk: bit x of rows is
+    // column x of the chunk, sides has the columns left and right of it.
+    // Returns the number of outlines.
+    int trace(final long[] rows, final int[] sides, final boolean hasLeft, final boolean hasTop) {
+        this.vertexCount = 0;
+        this.outlineCount = 0;
+        this.linkedCount = 0;
+        this.firstU = hasLeft ? 1 : 0;
+        this.firstV = hasTop ? 1 : 0;
+        for (int v = this.firstV; v <= Map.CHUNK_HEIGHT; v++) {
+            // only cells with both solid and empty corners have links: bit
+            // x is cell x + 1, with the corners in columns x and x + 1
+            final long top = rows[v];
+            final long bottom = rows[v + 1];
+            long mixed = ((top ^ (top >>> 1)) | (bottom ^ (bottom >>> 1)) | (top ^ bottom)) & (-1L >>> 1);
+            if (this.firstU == 0) {
+                link(rows, sides, 0, v);
+            }
+            while (mixed != 0) {
+                link(rows, sides, Long.numberOfTrailingZeros(mixed) + 1, v);
+                mixed &= mixed - 1;
+            }
+            link(rows, sides, Map.CHUNK_WIDTH, v);
+        }
+        // chains first: they start on an edge no link of the chunk goes to
+        for (int i = 0; i < this.linkedCount; i++) {
+            final int start = this.linked[i];
+            if (this.next[start] < 0 || this.isLinkedTo[start]) {
+                continue;
+            }
+            addGhost(rows, sides, start, true);
+            int n = 0;
+            int e = start;
+            while (true) {
+                setVertex(n++, e);
+                final int to = this.next[e];
+                this.next[e] = -1;
+                this.isLinkedTo[e] = false;
+                if (to < 0) {
+                    break;
+                }
+                e = to;
+            }
+            simplify(n, false);
+            addGhost(rows, sides, e, false);
+            this.isChain[this.outlineCount] = true;
+            this.ends[this.outlineCount++] = this.vertexCount;
+        }
+        for (int i = 0; i < this.linkedCount; i++) {
+            final int start = this.linked[i];
+            if (this.next[start] < 0) {
+                continue; // already on an outline
+            }
+            int n = 0;
+            int e = start;
+            do {
+                setVertex(n++, e);
+                final int to = this.next[e];
+                this.next[e] = -1;
+                this.isLinkedTo[e] = false;
+                e = to;
+            } while (e != start);
+            final int first = this.vertexCount;
+            simplify(n, true);
+            if (this.vertexCount - first < 3) {
+                this.vertexCount = first;
+                continue;
+            }
+            this.isChain[this.outlineCount] = false;
+            this.ends[this.outlineCount++] = this.vertexCount;
+        }
+        return this.outlineCount;
+    }
+
+    private boolean isOwned(final int u, final int v) {
+        return u >= this.firstU && u <= Map.CHUNK_WIDTH && v >= this.firstV && v <= Map.CHUNK_HEIGHT;
+    }
+
+    // Links the edges of the marching squares cell u,v
+    private void link(final long[] rows, final int[] sides, final int u, final int v) {
+        final int[] links = LINKS[getCorners(rows, sides, u, v)];
+        for (int l = 0; l < links.length; l += 2) {
+            final int from = edge(u, v, links[l]);
+            final int to = edge(u, v, links[l + 1]);
+            this.next[from] = to;
+            this.isLinkedTo[to] = true;
+            this.linked[this.linkedCount++] = from;
+        }
+    }
+
+    // Appends the vertex an outline comes from before edge e (or goes to
+    // after it) in the neighbour's cell on the other side of e
+    private void addGhost(final long[] rows, final int[] sides, final int e, final boolean isBefore) {
+        int u;
+        int v;
+        if (e < ROW_EDGES) {
+            // the top of cell u,v and the bottom of u,v - 1
+            u = e % CELLS;
+            v = e / CELLS;
+            if (isOwned(u, v)) {
+                v--;
+            }
+        } else {
+            // the left of cell u,v and the right of u - 1,v
+            u = (e - ROW_EDGES) % SAMPLES;
+            v = (e - ROW_EDGES) / SAMPLES;
+            if (isOwned(u, v)) {
+                u--;
+            }
+        }
+        final int[] links = LINKS[getCorners(rows, sides, u, v)];
+        for (int l = 0; l < links.length; l += 2) {
+            final int from = edge(u, v, links[l]);
+            final int to = edge(u, v, links[l + 1]);
+            if (isBefore ? to == e : from == e) {
+                final int ghost = isBefore ? from : to;
+                this.vertices[2 * this.vertexCount] = getX(ghost);
+                this.vertices[2 * this.vertexCount + 1] = getY(ghost);
+                this.vertexCount++;
+                return;
+            }
+        }
+    }
+
+    private static int getCorners(final long[] rows, final int[] sides, final int u, final int v) {
+        return (isSolid(rows, sides, u, v) ? 8 : 0)
+            | (isSolid(rows, sides, u + 1, v) ? 4 : 0)
+            | (isSolid(rows, sides, u + 1, v + 1) ? 2 : 0)
+            | (isSolid(rows, sides, u, v + 1) ? 1 : 0);
+    }
+
+    // Sample u,v is the centre of cell u - 1, v - 1 of the chunk
+    private static boolean isSolid(final long[] rows, final int[] sides, final int u, final int v) {
+        if (u == 0) {
+            return (sides[v] & SIDE_BEFORE) != 0;
+        }
+        if (u > Map.CHUNK_WIDTH) {
+            return (sides[v] & (u == Map.CHUNK_WIDTH + 1 ? SIDE_AFTER : SIDE_AFTER_NEXT)) != 0;
+        }
+        return (rows[v] >>> (u - 1) & 1L) != 0;
+    }
+
+    private static int edge(final int u, final int v, final int side) {
+        switch (side) {
+            case TOP: {
+                return v * CELLS + u;
+            }
+            case BOTTOM: {
+                return (v + 1) * CELLS + u;
+            }
+            case LEFT: {
+                return ROW_EDGES + v * SAMPLES + u;
+            }
+            default: {
+                return ROW_EDGES + v * SAMPLES + u + 1;
+            }
+        }
+    }
+
+    // The vertex of edge e is in its middle
+    private static float getX(final int e) {
+        return e < ROW_EDGES ? e % CELLS : (e - ROW_EDGES) % SAMPLES - 0.5f;
+    }
+
+    private static float getY(final int e) {
+        return e < ROW_EDGES ? e / CELLS - 0.5f : (e - ROW_EDGES) / SAMPLES;
+    }
+
+    private void setVertex(final int i, final int e) {
+        this.outlineX[i] = getX(e);
+        this.outlineY[i] = getY(e);
+    }
+
+    // Simplifies the current outline of n vertices and appends it to the result
+    private void simplify(final int n, final boolean isLoop) {
+        for (int i = 0; i < n; i++) {
+            this.isKept[i] = false;
+        }
+        int top = 0;
+        if (isLoop) {
+            // split the loop at vertex 0 and the vertex farthest from it
+            int far = 0;
+            float farDistance = -1f;
+            for (int i = 1; i < n; i++) {
+                final float dx = this.outlineX[i] - this.outlineX[0];
+                final float dy = this.outlineY[i] - this.outlineY[0];
+                final float d = dx * dx + dy * dy;
+                if (d > farDistance) {
+                    farDistance = d;
+                    far = i;
+                }
+            }
+            this.isKept[far] = true;
+            this.stack[top++] = 0;
+            this.stack[top++] = far;
+            this.stack[top++] = far;
+            this.stack[top++] = n; // n stands for vertex 0 again
+        } else {
+            this.isKept[n - 1] = true;
+            this.stack[top++] = 0;
+            this.stack[top++] = n - 1;
+        }
+        this.isKept[0] = true;
+        while (top > 0) {
+            final int last = this.stack[--top];
+            final int first = this.stack[--top];
+            final float ax = this.outlineX[first];
+            final float ay = this.outlineY[first];
+            final float bx = this.outlineX[last % n];
+            final float by = this.outlineY[last % n];
+            final float lx = bx - ax;
+            final float ly = by - ay;
+            final float length = (float)Math.sqrt(lx * lx + ly * ly);
+            int worst = -1;
+            float worstDistance = TOLERANCE;
+            for (int i = first + 1; i < last; i++) {
+                final float d = Math.abs((this.outlineX[i] - ax) * ly - (this.outlineY[i] - ay) * lx) / length;
+                if (d > worstDistance) {
+                    worstDistance = d;
+                    worst = i;
+                }
+            }
+            if (worst >= 0) {
+                this.isKept[worst] = true;
+                this.stack[top++] = first;
+                this.stack[top++] = worst;
+                this.stack[top++] = worst;
+                this.stack[top++] = last;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (this.isKept[i]) {
+                this.vertices[2 * this.vertexCount] = this.outlineX[i];
+                this.vertices[2 * this.vertexCount + 1] = this.outlineY[i];
+                this.vertexCount++;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.PXWorld.physics;
+
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.ChainShape;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
+import io.github.PXWorld.map.Map;
+
+/*
+    The terrain in a Box2D world: one static body per chunk, with a chain
+    fixture for every outline (TerrainOutlines) - a loop, or an open chain
+    with the ghost vertices of the neighbouring chunk's surface, so bodies
+    slide over chunk borders without catching on an edge.
+
+    update() takes the outlines traced since the last call and rebuilds
+    only the fixtures of those chunks - the rest of the world keeps its
+    fixtures and their contacts. Runs on the thread stepping the world.
+
+    Box2D units are metres, CELLS_PER_METRE cells each, with y up like the
+    camera (the Map's y grows down).
+ */
+public final class TerrainBodies {
+    public static final float CELLS_PER_METRE = 8f;
+    private static final float FRICTION = 0.6f;
+
+    private final World world;
+    private final TerrainOutlines outlines;
+    private final Body[] bodies;
+
+    private final float[] vertices = new float[2 * TerrainOutlines.MAX_VERTICES];
+    private final int[] ends = new int[TerrainOutlines.MAX_OUTLINES];
+    private final boolean[] isChain = new boolean[TerrainOutlines.MAX_OUTLINES];
+    private final ChainShape shape = new ChainShape();
+    private final FixtureDef fixtureDef = new FixtureDef();
+
+    public TerrainBodies(final World world, final TerrainOutlines outlines) {
+        this.world = world;
+        this.outlines = outlines;
+        this.bodies = new Body[outlines.getChunkCount()];
+        final BodyDef def = new BodyDef();
+        def.type = BodyDef.BodyType.StaticBody;
+        for (int i = 0; i < this.bodies.length; i++) {
+            this.bodies[i] = world.createBody(def);
+        }
+        this.fixtureDef.shape = this.shape;
+        this.fixtureDef.friction = FRICTION;
+        outlines.requestAll();
+    }
+
+    // Returns the number of chunks rebuilt
+    public int update() {
+        int rebuilt = 0;
+        for (int i = 0; i < this.bodies.length; i++) {
+            final int outlineCount = this.outlines.takeOutline(i, this.vertices, this.ends, this.isChain);
+            if (outlineCount < 0) {
+                continue;
+            }
+            final Body body = this.bodies[i];
+            final Array<Fixture> fixtures = body.getFixtureList();
+            while (fixtures.size > 0) {
+                body.destroyFixture(fixtures.peek());
+            }
+            int start = 0;
+            for (int o = 0; o < outlineCount; o++) {
+                final int end = this.ends[o];
+                for (int v = 2 * start; v < 2 * end; v += 2) {
+                    this.vertices[v] /= CELLS_PER_METRE;
+                    this.vertices[v + 1] = (Map.getMapH() - this.vertices[v + 1]) / CELLS_PER_METRE;
+                }
+                this.shape.clear();
+                if (this.isChain[o]) {
+                    this.shape.createChain(this.vertices, 2 * (start + 1), 2 * (end - start - 2));
+                    this.shape.setPrevVertex(this.vertices[2 * start], this.vertices[2 * start + 1]);
+                    this.shape.setNextVertex(this.vertices[2 * end - 2], this.vertices[2 * end - 1]);
+                } else {
+                    this.shape.createLoop(this.vertices, 2 * start, 2 * (end - start));
+                }
+                body.createFixture(this.fixtureDef);
+                start = end;
+            }
+            rebuilt++;
+        }
+        return rebuilt;
+    }
+
+    public void dispose() {
+        for (final Body body : this.bodies) {
+            this.world.destroyBody(body);
+        }
+        this.shape.dispose();
+    }
+}
@@ -0,0 +1,223 @@
+package io.github.PXWorld.physics;
+
+import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+
+import java.util.List;
+
+/*
+    Collision outlines of the solid cells of the Map, chunk by chunk, handed
+    from the simulation thread to the thread owning the physics world.
+
+    After every tick the simulation thread calls collect() while it still
+    holds the Map lock and before the frame is published (which clears the
+    dirty boxes): the rows of every dirty box are turned into bit rows of
+    solid cells (Material.isSolid), and a chunk whose rows came out
+    different is queued - with the neighbours whose outlines see the
+    changed cells past their border (ContourTracer samples one column and
+    row of the chunks before it and two of the ones after). Fluids, fire
+    and state changes leave the solid layout alone, so a chunk where only
+    water flows is never traced again; one with sand still sliding is
+    traced every tick until it settles.
+
+    extract() runs next, after the lock is released, and traces the queued
+    chunks (ContourTracer): closed loops, and open chains where a surface
+    goes on into a neighbour, ending on the same vertex as the neighbour's
+    so the surfaces of adjacent chunks join up. A traced outline replaces
+    whatever of that chunk was not taken yet. The main thread takes the
+    new outlines with takeOutline and builds the fixtures (TerrainBodies) -
+    Box2D may only be touched by the thread stepping it.
+
+    Vertices are in map window cells, x right and y down. Both sides hold
+    the lock only while copying an outline.
+ */
+public final class TerrainOutlines {
+    // Room the caller of takeOutline needs: 2 floats per vertex, 1 int and 1 flag per outline
+    public static final int MAX_VERTICES = ContourTracer.MAX_VERTICES;
+    public static final int MAX_OUTLINES = ContourTracer.MAX_OUTLINES;
+
+    private final List<Chunk> chunks;
+    private final int chunkCount;
+    private final int chunksAcross = Map.getMapW() / Map.CHUNK_WIDTH;
+    private final int chunksDown = Map.getMapH() / Map.CHUNK_HEIGHT;
+
+    // Simulation thread only: Map.CHUNK_HEIGHT solid rows per chunk, in
+    // the order of Map.getAllChunks
+    private final long[] solidRows;
+    private final boolean[] isQueued;
+    private final ContourTracer tracer = new ContourTracer();
+    // The window of the chunk being traced
+    private final long[] sampleRows = new long[ContourTracer.SAMPLES];
+    private final int[] sampleSides = new int[ContourTracer.SAMPLES];
+    private volatile boolean isFullCollectRequested = true;
+
+    // Traced and not taken yet, guarded by this
+    private final boolean[] isPending;
+    private final float[][] pendingVertices;
+    private final int[][] pendingEnds;
+    private final boolean[][] pendingIsChain;
+    private final int[] pendingOutlines;
+
+    private int lastQueuedChunks = 0;
+
+    public TerrainOutlines(final Map map) {
+        this.chunks = map.getAllChunks();
+        this.chunkCount = this.chunks.size();
+        this.solidRows = new long[this.chunkCount * Map.CHUNK_HEIGHT];
+        this.isQueued = new boolean[this.chunkCount];
+        this.isPending = new boolean[this.chunkCount];
+        this.pendingVertices = new float[this.chunkCount][];
+        this.pendingEnds = new int[this.chunkCount][];
+        this.pendingIsChain = new boolean[this.chunkCount][];
+        this.pendingOutlines = new int[this.chunkCount];
+    }
+
+    // Traces every chunk again on the next collect, e.g. for a new physics world
+    public void requestAll() {
+        this.isFullCollectRequested = true;
+    }
+
+    public int getChunkCount() {
+        return this.chunkCount;
+    }
+
+    // Chunks traced by the last extract
+    public int getLastQueuedChunks() {
+        return this.lastQueuedChunks;
+    }
+
+    // Simulation thread, after a tick, holding the Map lock and before
+    // FrameExchange.publish
+    public void collect() {
+        final boolean isFull = this.isFullCollectRequested;
+        if (isFull) {
+            this.isFullCollectRequested = false;
+        }
+        for (int i = 0; i < this.chunkCount; i++) {
+            final Chunk c = this.chunks.get(i);
+            final int minY;
+            final int maxY;
+            if (isFull) {
+                minY = c.getStartY();
+                maxY = c.getStartY() + Map.CHUNK_HEIGHT - 1;
+                this.isQueued[i] = true;
+            } else if (c.getIsDirty()) {
+                minY = c.getDirtyMinY();
+                maxY = c.getDirtyMaxY();
+            } else {
+                continue;
+            }
+            final int[] pixels = c.getChunkPixels();
+            for (int y = minY; y <= maxY; y++) {
+                // a row of a chunk is contiguous (see Map.index)
+                final int rowStart = Map.index(c.getStartX(), y);
+                long row = 0L;
+                for (int x = 0; x < Map.CHUNK_WIDTH; x++) {
+                    if (Material.isSolid(pixels[rowStart + x])) {
+                        row |= 1L << x;
+                    }
+                }
+                final int r = i * Map.CHUNK_HEIGHT + y - c.getStartY();
+                if (row != this.solidRows[r]) {
+                    queueAround(i, y - c.getStartY(), row ^ this.solidRows[r]);
+                    this.solidRows[r] = row;
+                }
+            }
+        }
+    }
+
+    // Queues chunk i and the neighbours sampling the changed columns of its row y
+    private void queueAround(final int i, final int y, final long changed) {
+        final int column = i % this.chunksAcross;
+        final int row = i / this.chunksAcross;
+        // the chunk before samples the first two columns or rows, the one after the last
+        final int fromColumn = (changed & 3L) != 0 ? column - 1 : column;
+        final int toColumn = changed < 0 ? column + 1 : column;
+        final int fromRow = y < 2 ? row - 1 : row;
+        final int toRow = y == Map.CHUNK_HEIGHT - 1 ? row + 1 : row;
+        for (int r = Math.max(fromRow, 0); r <= Math.min(toRow, this.chunksDown - 1); r++) {
+            for (int col = Math.max(fromColumn, 0); col <= Math.min(toColumn, this.chunksAcross - 1); col++) {
+                this.isQueued[r * this.chunksAcross + col] = true;
+            }
+        }
+    }
+
+    // Simulation thread, after collect, outside of the Map lock
+    public void extract() {
+        int queued = 0;
+        for (int i = 0; i < this.chunkCount; i++) {
+            if (!this.isQueued[i]) {
+                continue;
+            }
+            this.isQueued[i] = false;
+            queued++;
+            final int column = i % this.chunksAcross;
+            final int row = i / this.chunksAcross;
+            for (int v = 0; v < ContourTracer.SAMPLES; v++) {
+                final int y = v - 1;
+                this.sampleRows[v] = getSolidRow(column, row, y);
+                this.sampleSides[v] = (int)(getSolidRow(column - 1, row, y) >>> (Map.CHUNK_WIDTH - 1))
+                    * ContourTracer.SIDE_BEFORE
+                    | (int)(getSolidRow(column + 1, row, y) & 3L) * ContourTracer.SIDE_AFTER;
+            }
+            final int outlines = this.tracer.trace(this.sampleRows, this.sampleSides, column > 0, row > 0);
+            final Chunk c = this.chunks.get(i);
+            final float[] vertices = this.tracer.getVertices();
+            final int floats = 2 * this.tracer.getVertexCount();
+            for (int v = 0; v < floats; v += 2) {
+                vertices[v] += c.getStartX();
+                vertices[v + 1] += c.getStartY();
+            }
+            publish(i, outlines, vertices, floats);
+        }
+        this.lastQueuedChunks = queued;
+    }
+
+    // Solid row y of the chunk at column, row of the window, counting on
+    // into the chunks above and below it; empty outside of the window
+    private long getSolidRow(final int column, final int row, final int y) {
+        final int r = row + Math.floorDiv(y, Map.CHUNK_HEIGHT);
+        if (column < 0 || column >= this.chunksAcross || r < 0 || r >= this.chunksDown) {
+            return 0L;
+        }
+        return this.solidRows[(r * this.chunksAcross + column) * Map.CHUNK_HEIGHT
+            + Math.floorMod(y, Map.CHUNK_HEIGHT)];
+    }
+
+    private synchronized void publish(final int chunkIndex, final int outlines, final float[] vertices,
+                                      final int floats) {
+        if (this.pendingVertices[chunkIndex] == null || this.pendingVertices[chunkIndex].length < floats) {
+            this.pendingVertices[chunkIndex] = new float[floats];
+        }
+        if (this.pendingEnds[chunkIndex] == null || this.pendingEnds[chunkIndex].length < outlines) {
+            this.pendingEnds[chunkIndex] = new int[outlines];
+            this.pendingIsChain[chunkIndex] = new boolean[outlines];
+        }
+        System.arraycopy(vertices, 0, this.pendingVertices[chunkIndex], 0, floats);
+        System.arraycopy(this.tracer.getEnds(), 0, this.pendingEnds[chunkIndex], 0, outlines);
+        System.arraycopy(this.tracer.getIsChain(), 0, this.pendingIsChain[chunkIndex], 0, outlines);
+        this.pendingOutlines[chunkIndex] = outlines;
+        this.isPending[chunkIndex] = true;
+    }
+
+    // Main thread. Copies the outline of a chunk traced since the last call
+    // into vertices (x,y pairs), ends (the vertex each outline ends before)
+    // and isChain (open chains, whose first and last vertices are the
+    // ghosts; the others are loops). Returns the number of outlines, or -1
+    // when there is nothing new.
+    public synchronized int takeOutline(final int chunkIndex, final float[] vertices, final int[] ends,
+                                        final boolean[] isChain) {
+        if (!this.isPending[chunkIndex]) {
+            return -1;
+        }
+        this.isPending[chunkIndex] = false;
+        final int outlines = this.pendingOutlines[chunkIndex];
+        if (outlines > 0) {
+            System.arraycopy(this.pendingEnds[chunkIndex], 0, ends, 0, outlines);
+            System.arraycopy(this.pendingIsChain[chunkIndex], 0, isChain, 0, outlines);
+            System.arraycopy(this.pendingVertices[chunkIndex], 0, vertices, 0, 2 * ends[outlines - 1]);
+        }
+        return outlines;
+    }
+}
@@ -1,19 +1,342 @@
 package io.github.PXWorld.rendering;
 
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.GL30;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.NumberUtils;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+import io.github.PXWorld.sim.FrameExchange;
+import io.github.PXWorld.sim.Particles;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 
 /*
  * Renderer
  *
  * Renderer takes area and updates, renders that idea
  *
+ * The world texture holds one byte per pixel - the material id. Colour is
+ * resolved in the fragment shader through a 256x1 palette texture: rgb is
+ * the material colour, alpha the amount of per-pixel brightness noise
+ * (Material.COLOR_VARIATION). The noise is a hash of the world position,
+ * so it stays put when the window scrolls.
+ * Nothing on the CPU touches colours, and a palette can be swapped without
+ * touching the world.
+ *
+ * Dirty boxes published by the simulation are drained, already in the
+ * layout of the world texture, into a ring of pixel buffer objects: the
+ * frame's PBO is mapped, filled by the drain, unmapped, and every dirty chunk
+ * is uploaded from it in one pass. glTexSubImage2D then only queues a copy
+ * the GPU does on its own time, while the next frame fills the next PBO of
+ * the ring. Mapping with GL_MAP_INVALIDATE_BUFFER_BIT lets the driver hand
+ * out fresh memory instead of waiting for the previous copy.
+ * Without GL 3 (or when mapping fails) the drain goes into one persistent
+ * staging buffer that is uploaded straight from client memory.
+ * Nothing is allocated per frame.
+ *
+ * Particles in flight are not in the world texture. They are copied from
+ * the FrameExchange every frame and drawn on top as single pixel sprites,
+ * tinted with the flat colour of their material.
+ *
  */
 public class Renderer {
 
-    public Renderer() {
+    private static final String VERTEX_SHADER =
+        "attribute vec4 " + ShaderProgram.POSITION_ATTRIBUTE + ";\n"
+        + "attribute vec4 " + ShaderProgram.COLOR_ATTRIBUTE + ";\n"
+        + "attribute vec2 " + ShaderProgram.TEXCOORD_ATTRIBUTE + "0;\n"
+        + "uniform mat4 u_projTrans;\n"
+        + "varying vec4 v_color;\n"
+        + "varying vec2 v_texCoords;\n"
+        + "void main() {\n"
+        + "    v_color = " + ShaderProgram.COLOR_ATTRIBUTE + ";\n"
+        + "    v_texCoords = " + ShaderProgram.TEXCOORD_ATTRIBUTE + "0;\n"
+        + "    gl_Position = u_projTrans * " + ShaderProgram.POSITION_ATTRIBUTE + ";\n"
+        + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+        "#ifdef GL_ES\n"
+        + "precision highp float;\n"
+        + "#endif\n"
+        + "varying vec4 v_color;\n"
+        + "varying vec2 v_texCoords;\n"
+        + "uniform sampler2D u_texture;\n"   // material ids in ID_CHANNEL
+        + "uniform sampler2D u_palette;\n"   // rgb colour, alpha noise amount
+        + "uniform vec2 u_worldSize;\n"
+        + "uniform vec2 u_origin;\n"         // world pixel of texel 0,0
+        + "uniform float u_noise;\n"
+        + "void main() {\n"
+        + "    float id = texture2D(u_texture, v_texCoords).ID_CHANNEL;\n"
+        + "    vec4 entry = texture2D(u_palette, vec2((id * 255.0 + 0.5) / 256.0, 0.5));\n"
+        + "    vec2 cell = floor(v_texCoords * u_worldSize) + u_origin;\n"
+        + "    float n = fract(sin(dot(cell, vec2(12.9898, 78.233))) * 43758.5453) - 0.5;\n"
+        + "    gl_FragColor = vec4(entry.rgb * (1.0 + n * entry.a * u_noise), 1.0) * v_color;\n"
+        + "}\n";
+
+    private final Map map;
+    private final Texture worldTexture;
+    private final Texture paletteTexture;
+    private final ShaderProgram shader;
+    private boolean isNoiseEnabled = true;
+
+    private final Texture particleTexture; // 1x1 white, tinted per particle
+    private final float[] particleColors = new float[Material.MAX_MATERIALS]; // packed, per material id
+    private final short[] particleXY = new short[2 * Particles.DEFAULT_CAPACITY];
+    private final byte[] particleIds = new byte[Particles.DEFAULT_CAPACITY];
+
+    private static final int PBO_RING = 3;
+
+    // One chunk-sized segment per chunk, so the whole frame can be drained
+    // at once and uploaded after the exchange lock is released.
+    // PBOs use the same layout.
+    private final int uploadBytes;
+    private final ByteBuffer staging;
+    private final ByteBuffer[] chunkSegments;
+    private final int[] boxes;
+    private int[] pbos; // null when uploading from staging
+    private int pboCursor = 0;
+    // GL_RED on GL 3, where GL_ALPHA textures are gone from core profiles
+    private final int idFormat;
+
+    // Upload cost of the last frame, picked up by Metrics
+    private int lastUploadChunks = 0;
+    private int lastUploadBytes = 0;
+    private long lastUploadNanos = 0;
+
+    public Renderer(final Map map) {
+        this.map = map;
+        final int chunkCount = map.getAllChunks().size();
+        this.uploadBytes = chunkCount * Map.CHUNK_AREA;
+        this.staging = BufferUtils.newByteBuffer(this.uploadBytes);
+        this.chunkSegments = new ByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            this.staging.position(i * Map.CHUNK_AREA);
+            this.chunkSegments[i] = this.staging.slice();
+        }
+        this.staging.position(0);
+        this.boxes = new int[chunkCount * 4];
+
+        final Pixmap ids = new Pixmap(Map.getMapW(), Map.getMapH(), Pixmap.Format.Alpha);
+        map.copyMaterialIds(ids.getPixels());
+        this.worldTexture = new Texture(ids);
+        this.worldTexture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+        final GL30 gl30 = Gdx.gl30;
+        if (gl30 != null) {
+            this.idFormat = GL30.GL_RED;
+            this.worldTexture.bind();
+            Gdx.gl.glPixelStorei(GL20.GL_UNPACK_ALIGNMENT, 1);
+            gl30.glTexImage2D(GL20.GL_TEXTURE_2D, 0, GL30.GL_R8, Map.getMapW(), Map.getMapH(), 0,
+                GL30.GL_RED, GL20.GL_UNSIGNED_BYTE, ids.getPixels());
+            this.pbos = new int[PBO_RING];
+            for (int i = 0; i < PBO_RING; i++) {
+                this.pbos[i] = gl30.glGenBuffer();
+                gl30.glBindBuffer(GL30.GL_PIXEL_UNPACK_BUFFER, this.pbos[i]);
+                gl30.glBufferData(GL30.GL_PIXEL_UNPACK_BUFFER, this.uploadBytes, null, GL30.GL_STREAM_DRAW);
+            }
+            gl30.glBindBuffer(GL30.GL_PIXEL_UNPACK_BUFFER, 0);
+        } else {
+            this.idFormat = GL20.GL_ALPHA;
+        }
+        ids.dispose();
+
+        final Pixmap palette = createPalette();
+        this.paletteTexture = new Texture(palette);
+        this.paletteTexture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+        palette.dispose();
+
+        final Pixmap white = new Pixmap(1, 1, Pixmap.Format.RGBA8888);
+        white.drawPixel(0, 0, 0xFFFFFFFF);
+        this.particleTexture = new Texture(white);
+        white.dispose();
+        for (int id = 0; id < Material.MAX_MATERIALS; id++) {
+            this.particleColors[id] = NumberUtils.intToFloatColor(
+                Integer.reverseBytes(Map.convertFromRGB565ToRGB888(Material.COLOR_RGB565[id])));
+        }
+
+        this.shader = new ShaderProgram(VERTEX_SHADER,
+            "#define ID_CHANNEL " + (this.idFormat == GL20.GL_ALPHA ? "a" : "r") + "\n" + FRAGMENT_SHADER);
+        if (!this.shader.isCompiled()) {
+            throw new GdxRuntimeException("Palette shader: " + this.shader.getLog());
+        }
+    }
+
+    // One texel per material id
+    private static Pixmap createPalette() {
+        final Pixmap palette = new Pixmap(Material.MAX_MATERIALS, 1, Pixmap.Format.RGBA8888);
+        for (int id = 0; id < Material.MAX_MATERIALS; id++) {
+            final int rgba = Map.convertFromRGB565ToRGB888(Material.COLOR_RGB565[id]);
+            palette.drawPixel(id, 0, (rgba & 0xFFFFFF00) | Material.COLOR_VARIATION[id]);
+        }
+        return palette;
+    }
+
+    public Texture getWorldTexture() {
+        return this.worldTexture;
+    }
+
+    public void setNoiseEnabled(final boolean isNoiseEnabled) {
+        this.isNoiseEnabled = isNoiseEnabled;
+    }
+
+    public boolean getIsNoiseEnabled() {
+        return this.isNoiseEnabled;
+    }
+
+    // Draws the whole world at 0,0 with the batch's projection
+    public void renderAll(final SpriteBatch batch) {
+        this.paletteTexture.bind(1);
+        Gdx.gl.glActiveTexture(GL20.GL_TEXTURE0); // the batch binds the world texture to unit 0
+        batch.setShader(this.shader);
+        batch.begin();
+        this.shader.setUniformi("u_palette", 1);
+        this.shader.setUniformf("u_worldSize", Map.getMapW(), Map.getMapH());
+        this.shader.setUniformf("u_origin",
+            this.map.getOriginChunkX() * Map.CHUNK_WIDTH, this.map.getOriginChunkY() * Map.CHUNK_HEIGHT);
+        this.shader.setUniformf("u_noise", this.isNoiseEnabled ? 1f : 0f);
+        batch.draw(this.worldTexture, 0, 0);
+        batch.end();
+        batch.setShader(null);
+    }
+
+    // Draws the particles of the last published tick with the batch's projection
+    public void renderParticles(final SpriteBatch batch, final FrameExchange frames) {
+        final int count = frames.copyParticlesTo(this.particleXY, this.particleIds);
+        if (count == 0) {
+            return;
+        }
+        final float packedColor = batch.getPackedColor();
+        batch.begin();
+        for (int i = 0; i < count; i++) {
+            batch.setPackedColor(this.particleColors[this.particleIds[i] & 0xFF]);
+            // world y grows down, the camera's up
+            batch.draw(this.particleTexture, this.particleXY[2 * i], Map.getMapH() - 1 - this.particleXY[2 * i + 1], 1f, 1f);
+        }
+        batch.end();
+        batch.setPackedColor(packedColor);
+    }
+
+    public void uploadFrame(final FrameExchange frames) {
+        if (!frames.hasPending()) {
+            recordUpload(0, 0, 0);
+            return;
+        }
+        final long start = System.nanoTime();
+        final int count = this.pbos != null ? uploadThroughPbo(frames) : uploadFromStaging(frames);
+        recordUpload(count, uploadedBytes(), System.nanoTime() - start);
+    }
+
+    private int uploadThroughPbo(final FrameExchange frames) {
+        final GL30 gl30 = Gdx.gl30;
+        gl30.glBindBuffer(GL30.GL_PIXEL_UNPACK_BUFFER, this.pbos[this.pboCursor]);
+        this.pboCursor = (this.pboCursor + 1) % PBO_RING;
+        final Buffer mapped = gl30.glMapBufferRange(GL30.GL_PIXEL_UNPACK_BUFFER, 0, this.uploadBytes,
+            GL30.GL_MAP_WRITE_BIT | GL30.GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (!(mapped instanceof ByteBuffer)) {
+            gl30.glBindBuffer(GL30.GL_PIXEL_UNPACK_BUFFER, 0);
+            Gdx.app.error("Renderer", "Cannot map pixel buffers, uploading from client memory");
+            deletePbos();
+            return uploadFromStaging(frames);
+        }
+        final int count = frames.drainTo((ByteBuffer)mapped, this.boxes);
+        gl30.glUnmapBuffer(GL30.GL_PIXEL_UNPACK_BUFFER);
+        this.worldTexture.bind();
+        Gdx.gl.glPixelStorei(GL20.GL_UNPACK_ALIGNMENT, 1);
+        for (int i = 0; i < this.chunkSegments.length; i++) {
+            final int b = i * 4;
+            if (this.boxes[b + 2] < this.boxes[b]) {
+                continue;
+            }
+            // with a PBO bound the last argument is an offset into it
+            gl30.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0,
+                this.boxes[b], this.boxes[b + 1],
+                this.boxes[b + 2] - this.boxes[b] + 1,
+                this.boxes[b + 3] - this.boxes[b + 1] + 1,
+                this.idFormat, GL20.GL_UNSIGNED_BYTE, i * Map.CHUNK_AREA);
+        }
+        gl30.glBindBuffer(GL30.GL_PIXEL_UNPACK_BUFFER, 0);
+        return count;
+    }
+
+    private int uploadFromStaging(final FrameExchange frames) {
+        final int count = frames.drainTo(this.staging, this.boxes);
+        this.worldTexture.bind();
+        Gdx.gl.glPixelStorei(GL20.GL_UNPACK_ALIGNMENT, 1);
+        for (int i = 0; i < this.chunkSegments.length; i++) {
+            final int b = i * 4;
+            if (this.boxes[b + 2] < this.boxes[b]) {
+                continue;
+            }
+            Gdx.gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0,
+                this.boxes[b], this.boxes[b + 1],
+                this.boxes[b + 2] - this.boxes[b] + 1,
+                this.boxes[b + 3] - this.boxes[b + 1] + 1,
+                this.idFormat, GL20.GL_UNSIGNED_BYTE, this.chunkSegments[i]);
+        }
+        return count;
+    }
+
+    private int uploadedBytes() {
+        int bytes = 0;
+        for (int b = 0; b < this.boxes.length; b += 4) {
+            if (this.boxes[b + 2] >= this.boxes[b]) {
+                bytes += (this.boxes[b + 2] - this.boxes[b] + 1) * (this.boxes[b + 3] - this.boxes[b + 1] + 1);
+            }
+        }
+        return bytes;
+    }
+
+    private void recordUpload(final int chunks, final int bytes, final long nanos) {
+        this.lastUploadChunks = chunks;
+        this.lastUploadBytes = bytes;
+        this.lastUploadNanos = nanos;
+    }
+
+    public boolean getIsUsingPbo() {
+        return this.pbos != null;
+    }
+
+    public int getLastUploadChunks() {
+        return this.lastUploadChunks;
+    }
+
+    public int getLastUploadBytes() {
+        return this.lastUploadBytes;
+    }
+
+    // Boxes uploaded by the last frame, 4 ints per chunk (minX, minY, maxX, maxY),
+    // empty when min > max. Only valid while getLastUploadChunks() > 0.
+    public int[] getLastUploadBoxes() {
+        return this.boxes;
     }
 
-    // Get all areas and generate textures
+    // CPU time of draining and issuing the uploads - the GPU copy itself is asynchronous
+    public long getLastUploadNanos() {
+        return this.lastUploadNanos;
+    }
+
+    private void deletePbos() {
+        if (this.pbos == null) {
+            return;
+        }
+        for (final int pbo : this.pbos) {
+            Gdx.gl30.glDeleteBuffer(pbo);
+        }
+        this.pbos = null;
+    }
 
-    public void renderAll() {
+    public void dispose() {
+        deletePbos();
+        this.worldTexture.dispose();
+        this.paletteTexture.dispose();
+        this.particleTexture.dispose();
+        this.shader.dispose();
     }
 }
@@ -0,0 +1,259 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+
+/*
+    The block engine: a cellular automaton on the Margolus neighbourhood.
+
+    The map is cut into 2x2 blocks and the grid shifts by one cell
+    diagonally every tick - even ticks use blocks starting at even
+    coordinates, odd ticks the ones starting at odd coordinates. A block is
+    rewritten from its own four cells only, so no block sees the update of
+    another one within a tick: the result doesn't depend on the order blocks
+    are visited in, and nothing prefers right over left. The rules, applied
+    in order inside a block:
+        1. a falling cell above a free one swaps with it
+        2. a falling cell on top of something swaps with the free cell
+           diagonally below it
+    Every rule is a swap, so pixels are never lost. A fluid at the edge of
+    what it rests on steps off it with the other grid offset, where the
+    edge is in the middle of a block and rule 2 applies. Fluids don't
+    wander along flat surfaces - that would keep them moving for ever -
+    FluidLeveller evens out their bodies between ticks, as in Simulation,
+    and a body that is level lets its chunks go to sleep.
+
+    Blocks need no locks, but markChanged updates chunk bookkeeping (sim
+    boxes, wake-ups, dirty boxes), so blocks are still visited chunk by chunk
+    in the phases of ChunkPhases. A block belongs to the chunk holding its
+    top-left cell, clamped into the map for the blocks hanging over the left
+    and top edges. A change has to be looked at with both grid offsets, so
+    every sim box is scanned twice: in the tick after it was marked and in
+    the one after that.
+ */
+public class BlockSimulation implements SimulationEngine {
+
+    // Cell kinds, from Material behaviour. Outside the map is SOLID.
+    private static final int K_BLOCKING = 1;
+    private static final int K_FALLING  = 2;
+    private static final int SOLID = K_BLOCKING;
+    private static final int[] KIND = new int[Material.MAX_MATERIALS];
+
+    static {
+        for (int id = 0; id < Material.MAX_MATERIALS; id++) {
+            final int behaviour = Material.BEHAVIOUR[id];
+            KIND[id] = ((behaviour & Material.FLAG_B_BLOCKING) != 0 ? K_BLOCKING : 0)
+                | ((behaviour & Material.FLAG_B_FALLING) != 0 ? K_FALLING : 0);
+        }
+    }
+
+    private final Map map;
+    private final ChunkPhases phases;
+    private final ChunkPhases.ChunkStep chunkStep = this::stepChunk;
+    private final int chunksPerRow;
+
+    // Per chunk, the sim box scanned in the last tick - scanned once more
+    // with the other grid offset
+    private final int[] carryMinX;
+    private final int[] carryMinY;
+    private final int[] carryMaxX;
+    private final int[] carryMaxY;
+
+    private final FluidLeveller leveller;
+    private int levelledPixels = 0; // moved by the leveller in the last tick
+    private final Particles particles;
+    private int tick = 0;
+
+    public BlockSimulation(final Map map) {
+        this(map, 1);
+    }
+
+    public BlockSimulation(final Map map, final int threadCount) {
+        this.map = map;
+        this.phases = new ChunkPhases(map, threadCount);
+        this.leveller = new FluidLeveller(map);
+        this.particles = new Particles(map, this.phases, Particles.DEFAULT_CAPACITY);
+        this.chunksPerRow = Map.getMapW() >> Map.CHUNK_SHIFT;
+        final int chunkCount = map.getAllChunks().size();
+        this.carryMinX = new int[chunkCount];
+        this.carryMinY = new int[chunkCount];
+        this.carryMaxX = new int[chunkCount];
+        this.carryMaxY = new int[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            this.carryMinX[c] = this.carryMinY[c] = Integer.MAX_VALUE;
+            this.carryMaxX[c] = this.carryMaxY[c] = Integer.MIN_VALUE;
+        }
+    }
+
+    @Override
+    public void step() {
+        this.phases.run(this.chunkStep);
+        this.levelledPixels = this.tick % FluidLeveller.LEVEL_EVERY == 0 ? this.leveller.level() : 0;
+        this.particles.step();
+        this.tick++;
+    }
+
+    @Override
+    public int getMovedPixels() {
+        return this.phases.getMovedPixels() + this.levelledPixels + this.particles.getLandedPixels();
+    }
+
+    @Override
+    public int getAwakeChunks() {
+        return this.phases.getAwakeChunks();
+    }
+
+    @Override
+    public int getScannedChunks() {
+        return this.phases.getScannedChunks();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return this.phases.getThreadCount();
+    }
+
+    @Override
+    public Particles getParticles() {
+        return this.particles;
+    }
+
+    @Override
+    public void dispose() {
+        this.phases.dispose();
+    }
+
+    private void stepChunk(final Chunk chunk) {
+        if (!chunk.getIsAwake()) {
+            chunk.setWasScanned(false);
+            return;
+        }
+        final int startX = chunk.getStartX();
+        final int startY = chunk.getStartY();
+        final int c = (startY >> Map.CHUNK_SHIFT) * this.chunksPerRow + (startX >> Map.CHUNK_SHIFT);
+
+        // this tick's box is the fresh sim box plus the one carried over
+        int minX = this.carryMinX[c];
+        int minY = this.carryMinY[c];
+        int maxX = this.carryMaxX[c];
+        int maxY = this.carryMaxY[c];
+        if (chunk.beginScan()) {
+            this.carryMinX[c] = chunk.getScanMinX();
+            this.carryMinY[c] = chunk.getScanMinY();
+            this.carryMaxX[c] = chunk.getScanMaxX();
+            this.carryMaxY[c] = chunk.getScanMaxY();
+            minX = Math.min(minX, chunk.getScanMinX());
+            minY = Math.min(minY, chunk.getScanMinY());
+            maxX = Math.max(maxX, chunk.getScanMaxX());
+            maxY = Math.max(maxY, chunk.getScanMaxY());
+        } else {
+            this.carryMinX[c] = this.carryMinY[c] = Integer.MAX_VALUE;
+            this.carryMaxX[c] = this.carryMaxY[c] = Integer.MIN_VALUE;
+        }
+        chunk.endScan();
+
+        final boolean isScanning = maxX >= minX;
+        chunk.setWasScanned(isScanning);
+        int moved = 0;
+        if (isScanning) {
+            final int[] pixels = chunk.getChunkPixels();
+            final int offset = this.tick & 1;
+            // blocks with a cell in the box; the first block of the map's
+            // first chunk row/column hangs over the edge on odd ticks
+            final int x0 = firstBlock(minX, startX, offset);
+            final int y0 = firstBlock(minY, startY, offset);
+            final int x1 = Math.min(maxX, startX + Map.CHUNK_WIDTH - 1);
+            final int y1 = Math.min(maxY, startY + Map.CHUNK_HEIGHT - 1);
+            for (int by = y0; by <= y1; by += 2) {
+                for (int bx = x0; bx <= x1; bx += 2) {
+                    moved += stepBlock(pixels, bx, by);
+                }
+            }
+        }
+        chunk.updateIdleTicks(moved, Simulation.SLEEP_AFTER_TICKS);
+    }
+
+    // First block start owned by a chunk starting at chunkStart that covers
+    // the coordinate min
+    private static int firstBlock(final int min, final int chunkStart, final int offset) {
+        final int first = chunkStart == 0 ? -offset : chunkStart + offset;
+        int b = Math.max(min - 1, first);
+        if (((b - offset) & 1) != 0) {
+            b++;
+        }
+        return b;
+    }
+
+    // Updates the block with top-left cell x,y. Returns the number of pixels
+    // moved.
+    private int stepBlock(final int[] pixels, final int x, final int y) {
+        final boolean hasLeft = x >= 0;
+        final boolean hasRight = x + 1 < Map.getMapW();
+        final boolean hasTop = y >= 0;
+        final boolean hasBottom = y + 1 < Map.getMapH();
+        //  a b
+        //  c d
+        final int ia = hasLeft && hasTop ? Map.index(x, y) : -1;
+        final int ib = hasRight && hasTop ? Map.index(x + 1, y) : -1;
+        final int ic = hasLeft && hasBottom ? Map.index(x, y + 1) : -1;
+        final int id = hasRight && hasBottom ? Map.index(x + 1, y + 1) : -1;
+        final int a0 = ia >= 0 ? pixels[ia] : 0;
+        final int b0 = ib >= 0 ? pixels[ib] : 0;
+        final int c0 = ic >= 0 ? pixels[ic] : 0;
+        final int d0 = id >= 0 ? pixels[id] : 0;
+        int ka = ia >= 0 ? KIND[a0 >>> Material.ID_SHIFT] : SOLID;
+        int kb = ib >= 0 ? KIND[b0 >>> Material.ID_SHIFT] : SOLID;
+        int kc = ic >= 0 ? KIND[c0 >>> Material.ID_SHIFT] : SOLID;
+        int kd = id >= 0 ? KIND[d0 >>> Material.ID_SHIFT] : SOLID;
+        if (((ka | kb | kc | kd) & K_FALLING) == 0) {
+            return 0;
+        }
+        int a = a0;
+        int b = b0;
+        int c = c0;
+        int d = d0;
+        int t;
+        int moves = 0;
+
+        // 1. fall
+        if ((ka & K_FALLING) != 0 && (kc & K_BLOCKING) == 0) {
+            t = a; a = c; c = t;
+            t = ka; ka = kc; kc = t;
+            moves++;
+        }
+        if ((kb & K_FALLING) != 0 && (kd & K_BLOCKING) == 0) {
+            t = b; b = d; d = t;
+            t = kb; kb = kd; kd = t;
+            moves++;
+        }
+        // 2. slide - a cell still on top has something below it
+        if ((ka & K_FALLING) != 0 && (kd & K_BLOCKING) == 0) {
+            t = a; a = d; d = t;
+            t = ka; ka = kd; kd = t;
+            moves++;
+        } else if ((kb & K_FALLING) != 0 && (kc & K_BLOCKING) == 0) {
+            t = b; b = c; c = t;
+            t = kb; kb = kc; kc = t;
+            moves++;
+        }
+
+        if (a != a0) {
+            pixels[ia] = a;
+            this.map.markChanged(x, y);
+        }
+        if (b != b0) {
+            pixels[ib] = b;
+            this.map.markChanged(x + 1, y);
+        }
+        if (c != c0) {
+            pixels[ic] = c;
+            this.map.markChanged(x, y + 1);
+        }
+        if (d != d0) {
+            pixels[id] = d;
+            this.map.markChanged(x + 1, y + 1);
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.Map;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+    Runs a step over every chunk of the Map in four checkerboard phases:
+        0 1 0 1
+        2 3 2 3
+        0 1 0 1
+    No two chunks of the same phase are neighbours. As long as a step only
+    touches its own chunk and the cells next to it, the chunks of one phase
+    can be stepped at the same time without locks; a step reaching further
+    into a neighbour has to lock what it marks there. The serial path walks
+    the same phases, so both produce exactly the same world.
+
+    Also collects the per-tick statistics every engine reports, and lends
+    its pool to work that is cut into slices of an array instead of chunks.
+ */
+final class ChunkPhases {
+    private static final int PHASES = 4;
+
+    interface ChunkStep {
+        void step(Chunk chunk);
+    }
+
+    // Works on the items from - to (exclusive) of something
+    interface SliceStep {
+        void step(int from, int to);
+    }
+
+    private final Chunk[][] phaseChunks = new Chunk[PHASES][];
+    private final int threadCount;
+    private final ForkJoinPool pool; // null when running serially
+
+    // Statistics of the last run
+    private int movedPixels = 0;
+    private int awakeChunks = 0;
+    private int scannedChunks = 0;
+
+    ChunkPhases(final Map map, final int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+        this.pool = this.threadCount > 1 ? new ForkJoinPool(this.threadCount) : null;
+
+        final List<Chunk> chunks = map.getAllChunks();
+        final int[] phaseSizes = new int[PHASES];
+        for (final Chunk c : chunks) {
+            phaseSizes[getPhase(c)]++;
+        }
+        for (int phase = 0; phase < PHASES; phase++) {
+            this.phaseChunks[phase] = new Chunk[phaseSizes[phase]];
+            phaseSizes[phase] = 0;
+        }
+        for (final Chunk c : chunks) {
+            final int phase = getPhase(c);
+            this.phaseChunks[phase][phaseSizes[phase]++] = c;
+        }
+    }
+
+    private static int getPhase(final Chunk c) {
+        final int cx = c.getStartX() / Chunk.chunkWidth;
+        final int cy = c.getStartY() / Chunk.chunkHeight;
+        return (cx & 1) | ((cy & 1) << 1);
+    }
+
+    int getThreadCount() {
+        return this.threadCount;
+    }
+
+    void dispose() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+
+    void run(final ChunkStep step) {
+        for (int phase = 0; phase < PHASES; phase++) {
+            final Chunk[] chunks = this.phaseChunks[phase];
+            if (this.pool == null) {
+                for (final Chunk chunk : chunks) {
+                    step.step(chunk);
+                }
+            } else {
+                // invoke() returns only after the whole phase is done
+                this.pool.invoke(new PhaseTask(step, chunks, 0, chunks.length));
+            }
+        }
+        int moved = 0;
+        int awake = 0;
+        int scanned = 0;
+        for (final Chunk[] chunks : this.phaseChunks) {
+            for (final Chunk chunk : chunks) {
+                if (chunk.getIsAwake()) {
+                    moved += chunk.getMovedPixels();
+                    awake++;
+                }
+                if (chunk.getWasScanned()) {
+                    scanned++;
+                }
+            }
+        }
+        this.movedPixels = moved;
+        this.awakeChunks = awake;
+        this.scannedChunks = scanned;
+    }
+
+    // Runs step over 0 - count, in parallel slices of at least minSlice items
+    // when there is a pool. Slices must not depend on each other.
+    void runSlices(final int count, final int minSlice, final SliceStep step) {
+        if (this.pool == null || count < 2 * minSlice) {
+            step.step(0, count);
+            return;
+        }
+        final int slice = Math.max(minSlice, (count + this.threadCount - 1) / this.threadCount);
+        this.pool.invoke(new SliceTask(step, 0, count, slice));
+    }
+
+    int getMovedPixels() {
+        return this.movedPixels;
+    }
+
+    int getAwakeChunks() {
+        return this.awakeChunks;
+    }
+
+    int getScannedChunks() {
+        return this.scannedChunks;
+    }
+
+    private static final class PhaseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ChunkStep step;
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+
+        PhaseTask(final ChunkStep step, final Chunk[] chunks, final int from, final int to) {
+            this.step = step;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.step.step(this.chunks[this.from]);
+                return;
+            }
+            if (this.to - this.from < 1) {
+                return;
+            }
+            final int mid = (this.from + this.to) >>> 1;
+            invokeAll(new PhaseTask(this.step, this.chunks, this.from, mid),
+                new PhaseTask(this.step, this.chunks, mid, this.to));
+        }
+    }
+
+    private static final class SliceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SliceStep step;
+        private final int from;
+        private final int to;
+        private final int slice;
+
+        SliceTask(final SliceStep step, final int from, final int to, final int slice) {
+            this.step = step;
+            this.from = from;
+            this.to = to;
+            this.slice = slice;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.slice) {
+                this.step.step(this.from, this.to);
+                return;
+            }
+            final int mid = this.from + this.slice;
+            invokeAll(new SliceTask(this.step, this.from, mid, this.slice),
+                new SliceTask(this.step, mid, this.to, this.slice));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Map;
+
+/*
+    The simulation engines, selectable by name from the game, the headless
+    runner and the benchmarks. Engines follow different rules, so the same
+    scene ends up differently under each of them.
+ */
+public enum EngineType {
+    // Simulation: bottom to top scan, pixel by pixel
+    SCAN,
+    // Simulation with granular rows moved as bitmasks (see SandRows)
+    BIT_SAND,
+    // BlockSimulation: 2x2 Margolus blocks
+    BLOCK;
+
+    public SimulationEngine create(final Map map, final int threadCount) {
+        switch (this) {
+            case BIT_SAND: {
+                final Simulation sim = new Simulation(map, threadCount);
+                sim.setBitSandEnabled(true);
+                return sim;
+            }
+            case BLOCK: {
+                return new BlockSimulation(map, threadCount);
+            }
+            default: {
+                return new Simulation(map, threadCount);
+            }
+        }
+    }
+}
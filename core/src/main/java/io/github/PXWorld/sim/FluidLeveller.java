@@ -0,0 +1,164 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+
+import java.util.List;
+
+/*
+    Pressure levelling for connected bodies of fluid.
+
+    Spreading along a row never moves a fluid uphill, so a body with a mound
+    on it, or two basins joined below their surfaces, takes a long time to
+    even out. Every LEVEL_EVERY ticks this pass flood-fills every body with
+    a pixel in an awake chunk and moves up to MAX_MOVES_PER_BODY pixels from
+    its highest surface to the lowest free cells next to it - where the
+    pressure of the body would push them. A surface is a resting fluid pixel
+    with a free cell above it; pixels still falling are left to the falls.
+
+    Runs serially between ticks. Bodies entirely in sleeping chunks are not
+    looked at.
+ */
+final class FluidLeveller {
+    static final int LEVEL_EVERY = 4;
+    private static final int MAX_MOVES_PER_BODY = 64;
+
+    private final Map map;
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+
+    // Cells are x + y * width. A cell is in the current pass when its stamp
+    // is the pass number.
+    private final int[] bodyStamp;
+    private final int[] outletStamp;
+    private int pass = 0;
+
+    private final int[] queue;
+    private final int[] surfaces;
+    private final int[] outlets;
+    private int surfaceCount;
+    private int outletCount;
+
+    FluidLeveller(final Map map) {
+        this.map = map;
+        this.pixels = map.getPixels();
+        this.width = Map.getMapW();
+        this.height = Map.getMapH();
+        final int cells = this.width * this.height;
+        this.bodyStamp = new int[cells];
+        this.outletStamp = new int[cells];
+        this.queue = new int[cells];
+        this.surfaces = new int[cells];
+        this.outlets = new int[cells];
+    }
+
+    // Returns the number of pixels moved
+    int level() {
+        this.pass++;
+        int moved = 0;
+        final List<Chunk> chunks = this.map.getAllChunks();
+        for (final Chunk chunk : chunks) {
+            if (!chunk.getIsAwake()) {
+                continue;
+            }
+            final int offset = chunk.getOffset();
+            for (int i = 0; i < Map.CHUNK_AREA; i++) {
+                if ((Material.getBehaviour(this.pixels[offset + i]) & Material.FLAG_B_FLUID) == 0) {
+                    continue;
+                }
+                final int x = chunk.getStartX() + (i & (Map.CHUNK_WIDTH - 1));
+                final int y = chunk.getStartY() + (i >> Map.CHUNK_SHIFT);
+                if (this.bodyStamp[x + y * this.width] != this.pass) {
+                    collectBody(x, y);
+                    moved += levelBody();
+                }
+            }
+        }
+        return moved;
+    }
+
+    // Flood-fills the body holding x,y, collecting its surfaces and outlets
+    private void collectBody(final int x, final int y) {
+        this.surfaceCount = 0;
+        this.outletCount = 0;
+        int head = 0;
+        int tail = 0;
+        this.queue[tail++] = x + y * this.width;
+        this.bodyStamp[x + y * this.width] = this.pass;
+        while (head < tail) {
+            final int cell = this.queue[head++];
+            final int cx = cell % this.width;
+            final int cy = cell / this.width;
+            final int pixel = this.pixels[Map.index(cx, cy)];
+            if (cy > 0 && (pixel & Material.STATE_VELOCITY) == 0
+                && !Material.isBlocking(this.pixels[Map.index(cx, cy - 1)])) {
+                this.surfaces[this.surfaceCount++] = cell;
+            }
+            tail = visit(cx - 1, cy, tail);
+            tail = visit(cx + 1, cy, tail);
+            tail = visit(cx, cy - 1, tail);
+            tail = visit(cx, cy + 1, tail);
+        }
+    }
+
+    // Queues a fluid neighbour, or records a free one as an outlet
+    private int visit(final int x, final int y, int tail) {
+        if (x < 0 || y < 0 || x >= this.width || y >= this.height) {
+            return tail;
+        }
+        final int cell = x + y * this.width;
+        final int pixel = this.pixels[Map.index(x, y)];
+        if ((Material.getBehaviour(pixel) & Material.FLAG_B_FLUID) != 0) {
+            if (this.bodyStamp[cell] != this.pass) {
+                this.bodyStamp[cell] = this.pass;
+                this.queue[tail++] = cell;
+            }
+        } else if (!Material.isBlocking(pixel) && this.outletStamp[cell] != this.pass) {
+            this.outletStamp[cell] = this.pass;
+            this.outlets[this.outletCount++] = cell;
+        }
+        return tail;
+    }
+
+    // Moves the highest surfaces to the lowest outlets below them
+    private int levelBody() {
+        int moved = 0;
+        while (moved < MAX_MOVES_PER_BODY) {
+            int highest = -1;
+            for (int i = 0; i < this.surfaceCount; i++) {
+                if (this.surfaces[i] >= 0 && (highest < 0 || this.surfaces[i] < this.surfaces[highest])) {
+                    highest = i;
+                }
+            }
+            int lowest = -1;
+            for (int i = 0; i < this.outletCount; i++) {
+                if (this.outlets[i] >= 0 && (lowest < 0 || this.outlets[i] > this.outlets[lowest])) {
+                    lowest = i;
+                }
+            }
+            if (highest < 0 || lowest < 0
+                || this.outlets[lowest] / this.width <= this.surfaces[highest] / this.width) {
+                break; // level to within a cell
+            }
+            final int from = this.surfaces[highest];
+            final int to = this.outlets[lowest];
+            this.surfaces[highest] = -1;
+            this.outlets[lowest] = -1;
+            final int fromX = from % this.width;
+            final int fromY = from / this.width;
+            final int toX = to % this.width;
+            final int toY = to / this.width;
+            final int fromIndex = Map.index(fromX, fromY);
+            final int toIndex = Map.index(toX, toY);
+            final int pixel = this.pixels[fromIndex];
+            this.pixels[fromIndex] = this.pixels[toIndex];
+            this.pixels[toIndex] = pixel & ~Material.STATE_TRANSIENT;
+            this.map.markChanged(fromX, fromY);
+            this.map.markChanged(toX, toY);
+            moved++;
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/*
+    Hands finished frames from the simulation thread to the render thread.
+
+    The simulation owns the world. After every tick it publishes the dirty
+    boxes of its chunks into this exchange: the material ids of the box are
+    copied into a mirror of the world and the boxes are added to what the renderer
+    has not picked up yet. The render thread drains whatever accumulated
+    since its last frame into its own staging memory and uploads from there.
+
+    Particles are drawn anew every frame, so they are not accumulated: every
+    publish replaces the cells and material ids of the particles in flight,
+    and the render thread copies whatever is there when it draws.
+
+    Both sides hold the lock only while copying - the GPU upload
+    and the tick itself happen outside of it, so a slow frame never stalls
+    the simulation and a slow tick never holds back a frame.
+ */
+public class FrameExchange {
+
+    // Material ids of the world, tiled the same way as Map pixels.
+    // Colours are resolved by the renderer's palette.
+    private final byte[] ids;
+
+    // Boxes published but not drained yet, 4 ints per chunk: minX, minY, maxX, maxY.
+    // World coordinates, inclusive, empty when min > max.
+    private final int[] boxes;
+
+    private final int chunkCount;
+
+    // Particles of the last published tick, two shorts of position per particle
+    private final short[] particleXY = new short[2 * Particles.DEFAULT_CAPACITY];
+    private final byte[] particleIds = new byte[Particles.DEFAULT_CAPACITY];
+    private int particleCount = 0;
+
+    private long publishedTicks = 0;
+    private boolean hasPending = false;
+
+    public FrameExchange(final Map map) {
+        this.ids = new byte[map.getPixels().length];
+        this.chunkCount = map.getAllChunks().size();
+        this.boxes = new int[this.chunkCount * 4];
+        for (int i = 0; i < this.chunkCount; i++) {
+            clearBox(i);
+        }
+    }
+
+    private void clearBox(final int chunkIndex) {
+        this.boxes[chunkIndex * 4] = Integer.MAX_VALUE;
+        this.boxes[chunkIndex * 4 + 1] = Integer.MAX_VALUE;
+        this.boxes[chunkIndex * 4 + 2] = Integer.MIN_VALUE;
+        this.boxes[chunkIndex * 4 + 3] = Integer.MIN_VALUE;
+    }
+
+    // Simulation thread, after a tick. Caller must make sure nothing writes
+    // the map at the same time. Clears the dirty boxes of the chunks.
+    public synchronized void publish(final List<Chunk> chunks, final Particles particles) {
+        this.particleCount = particles.copyTo(this.particleXY, this.particleIds);
+        for (int i = 0; i < chunks.size(); i++) {
+            final Chunk c = chunks.get(i);
+            if (!c.getIsDirty()) {
+                continue;
+            }
+            final int[] pixels = c.getChunkPixels();
+            final int baseIndex = c.getOffset() - c.getStartX() - (c.getStartY() << Map.CHUNK_SHIFT);
+            for (int cy = c.getDirtyMinY(); cy <= c.getDirtyMaxY(); cy++) {
+                final int rowStart = baseIndex + (cy << Map.CHUNK_SHIFT);
+                for (int cx = c.getDirtyMinX(); cx <= c.getDirtyMaxX(); cx++) {
+                    this.ids[rowStart + cx] = (byte)(pixels[rowStart + cx] >>> Material.ID_SHIFT);
+                }
+            }
+            final int b = i * 4;
+            this.boxes[b] = Math.min(this.boxes[b], c.getDirtyMinX());
+            this.boxes[b + 1] = Math.min(this.boxes[b + 1], c.getDirtyMinY());
+            this.boxes[b + 2] = Math.max(this.boxes[b + 2], c.getDirtyMaxX());
+            this.boxes[b + 3] = Math.max(this.boxes[b + 3], c.getDirtyMaxY());
+            c.clearDirty();
+            this.hasPending = true;
+        }
+        this.publishedTicks++;
+    }
+
+    // Render thread. For every chunk with something to upload, writes its box
+    // packed row by row into staging at chunkIndex * Map.CHUNK_AREA and the box
+    // itself into boxesOut (4 ints per chunk, empty boxes for the rest).
+    // Returns the number of chunks to upload.
+    public synchronized int drainTo(final ByteBuffer staging, final int[] boxesOut) {
+        int count = 0;
+        for (int i = 0; i < this.chunkCount; i++) {
+            final int b = i * 4;
+            final int minX = this.boxes[b];
+            final int minY = this.boxes[b + 1];
+            final int maxX = this.boxes[b + 2];
+            final int maxY = this.boxes[b + 3];
+            boxesOut[b] = minX;
+            boxesOut[b + 1] = minY;
+            boxesOut[b + 2] = maxX;
+            boxesOut[b + 3] = maxY;
+            if (maxX < minX) {
+                continue;
+            }
+            int dst = i * Map.CHUNK_AREA;
+            for (int y = minY; y <= maxY; y++) {
+                final int rowStart = Map.index(minX, y);
+                for (int x = 0; x <= maxX - minX; x++) {
+                    staging.put(dst++, this.ids[rowStart + x]);
+                }
+            }
+            clearBox(i);
+            count++;
+        }
+        this.hasPending = false;
+        return count;
+    }
+
+    // Render thread. Copies the particles of the last published tick, see
+    // Particles.copyTo. Returns their number.
+    public synchronized int copyParticlesTo(final short[] xy, final byte[] ids) {
+        final int n = Math.min(this.particleCount, ids.length);
+        System.arraycopy(this.particleXY, 0, xy, 0, 2 * n);
+        System.arraycopy(this.particleIds, 0, ids, 0, n);
+        return n;
+    }
+
+    // Render thread - lets the renderer skip preparing an upload when
+    // nothing was published since the last drain
+    public synchronized boolean hasPending() {
+        return this.hasPending;
+    }
+
+    public synchronized long getPublishedTicks() {
+        return this.publishedTicks;
+    }
+}
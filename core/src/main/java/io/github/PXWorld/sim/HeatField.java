@@ -0,0 +1,449 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+
+import java.util.Arrays;
+
+/*
+    Temperature of the world, one cell per CELL_SIZE x CELL_SIZE pixels.
+
+    Temperatures are kept above ambient, so 0 is cold. Burning pixels add
+    heat to their cell with addHeat while the chunks are updated; step() then
+    diffuses and cools the whole field by one implicit Euler step:
+        (1 + COOLING + 4 * DIFFUSION) t - DIFFUSION * (sum of 4 neighbours) = t_old + heat
+    Outside the map is ambient. The implicit step stays stable however fast
+    heat spreads, and is solved with one multigrid V-cycle per tick, started
+    from the last tick's field: red-black Gauss-Seidel on each level, the
+    residual averaged down into a grid of half the size, the correction
+    copied back up. Since the field changes little from one tick to the
+    next, one cycle keeps it close to the exact solution.
+
+    Only active tiles are solved - a tile is the cells of one chunk, active
+    while it holds heat or got some this tick - plus the tiles around them,
+    where the heat spreads to. The rest of the field is ambient and costs
+    nothing; the coarse levels only cover the box around the solved tiles.
+
+    The pixel update reads the field with sample(). Between ticks step()
+    wakes flammable pixels in cells hot enough to ignite them, since nothing
+    else would have them scanned.
+ */
+final class HeatField {
+    static final int CELL_SHIFT = 2;
+    static final int CELL_SIZE = 1 << CELL_SHIFT;
+
+    // Flammable pixels may catch fire from this temperature up
+    static final float IGNITION_TEMPERATURE = 60f;
+
+    // Cell to cell spread and the fraction of heat lost to the air, per tick
+    private static final float DIFFUSION = 0.5f;
+    private static final float COOLING = 0.05f;
+    // A tile holding less than this everywhere goes back to ambient
+    private static final float COLD = 1f;
+
+    private static final int TILE_SHIFT = Map.CHUNK_SHIFT - CELL_SHIFT;
+    private static final int TILE_CELLS = 1 << TILE_SHIFT;
+    private static final int PRE_SWEEPS = 1;
+    private static final int POST_SWEEPS = 1;
+    private static final int COARSEST_SWEEPS = 12;
+    private static final int COARSEST_WIDTH = 8;
+
+    private final Map map;
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+
+    // Per level: the solution, the right hand side and the residual. Level 0
+    // is the field itself, every level halves both sides.
+    private final int levels;
+    private final int[] levelWidth;
+    private final int[] levelHeight;
+    private final float[][] solution;
+    private final float[][] rhs;
+    private final float[][] residual;
+    private final float[] diffusion;
+
+    // Heat added since the last step, written by the chunk holding the cell
+    private final float[] heat;
+
+    private final int tilesPerRow;
+    private final int tileRows;
+    private final boolean[] isTileActive;
+    private final boolean[] isTileHeated;
+    private final boolean[] isTileSolved;
+    private final int[] solvedTiles;
+    private int solvedTileCount = 0;
+
+    private final float[] scrollScratch;
+    private int originChunkX;
+    private int originChunkY;
+
+    HeatField(final Map map) {
+        this.map = map;
+        this.pixels = map.getPixels();
+        this.width = Map.getMapW() >> CELL_SHIFT;
+        this.height = Map.getMapH() >> CELL_SHIFT;
+        int count = 1;
+        while ((this.width >> count) >= COARSEST_WIDTH && (this.height >> count) >= COARSEST_WIDTH) {
+            count++;
+        }
+        this.levels = count;
+        this.levelWidth = new int[count];
+        this.levelHeight = new int[count];
+        this.solution = new float[count][];
+        this.rhs = new float[count][];
+        this.residual = new float[count][];
+        this.diffusion = new float[count];
+        for (int l = 0; l < count; l++) {
+            this.levelWidth[l] = this.width >> l;
+            this.levelHeight[l] = this.height >> l;
+            final int cells = this.levelWidth[l] * this.levelHeight[l];
+            this.solution[l] = new float[cells];
+            this.rhs[l] = new float[cells];
+            this.residual[l] = new float[cells];
+            // the same equation on cells twice as wide
+            this.diffusion[l] = DIFFUSION / (1 << (2 * l));
+        }
+        this.heat = new float[this.width * this.height];
+        this.tilesPerRow = this.width >> TILE_SHIFT;
+        this.tileRows = this.height >> TILE_SHIFT;
+        final int tiles = this.tilesPerRow * this.tileRows;
+        this.isTileActive = new boolean[tiles];
+        this.isTileHeated = new boolean[tiles];
+        this.isTileSolved = new boolean[tiles];
+        this.solvedTiles = new int[tiles];
+        this.scrollScratch = new float[this.width * this.height];
+        this.originChunkX = map.getOriginChunkX();
+        this.originChunkY = map.getOriginChunkY();
+    }
+
+    // Temperature of the cell holding pixel x,y
+    float sample(final int x, final int y) {
+        return this.solution[0][(y >> CELL_SHIFT) * this.width + (x >> CELL_SHIFT)];
+    }
+
+    // Adds heat to the cell holding pixel x,y. Only the thread updating the
+    // chunk of x,y may call it.
+    void addHeat(final int x, final int y, final float amount) {
+        this.heat[(y >> CELL_SHIFT) * this.width + (x >> CELL_SHIFT)] += amount;
+        this.isTileHeated[(y >> Map.CHUNK_SHIFT) * this.tilesPerRow + (x >> Map.CHUNK_SHIFT)] = true;
+    }
+
+    // Called between ticks
+    void step() {
+        followScroll();
+        if (!collectSolvedTiles()) {
+            return;
+        }
+        final float[] t = this.solution[0];
+        final float[] f = this.rhs[0];
+        for (int i = 0; i < this.solvedTileCount; i++) {
+            final int tile = this.solvedTiles[i];
+            final int x0 = (tile % this.tilesPerRow) << TILE_SHIFT;
+            final int y0 = (tile / this.tilesPerRow) << TILE_SHIFT;
+            for (int y = y0; y < y0 + TILE_CELLS; y++) {
+                final int row = y * this.width;
+                for (int x = x0; x < x0 + TILE_CELLS; x++) {
+                    f[row + x] = t[row + x] + this.heat[row + x];
+                    this.heat[row + x] = 0f;
+                }
+            }
+        }
+        vCycle();
+        settleTiles();
+        wakeFlammable();
+        Arrays.fill(this.isTileHeated, false);
+    }
+
+    // Tiles to solve this tick: the active and heated ones and their
+    // neighbours. Returns false when there are none.
+    private boolean collectSolvedTiles() {
+        Arrays.fill(this.isTileSolved, false);
+        boolean isAny = false;
+        for (int ty = 0; ty < this.tileRows; ty++) {
+            for (int tx = 0; tx < this.tilesPerRow; tx++) {
+                final int tile = ty * this.tilesPerRow + tx;
+                if (!this.isTileActive[tile] && !this.isTileHeated[tile]) {
+                    continue;
+                }
+                isAny = true;
+                for (int ny = Math.max(ty - 1, 0); ny <= Math.min(ty + 1, this.tileRows - 1); ny++) {
+                    for (int nx = Math.max(tx - 1, 0); nx <= Math.min(tx + 1, this.tilesPerRow - 1); nx++) {
+                        this.isTileSolved[ny * this.tilesPerRow + nx] = true;
+                    }
+                }
+            }
+        }
+        this.solvedTileCount = 0;
+        for (int tile = 0; tile < this.isTileSolved.length; tile++) {
+            if (this.isTileSolved[tile]) {
+                this.solvedTiles[this.solvedTileCount++] = tile;
+            }
+        }
+        return isAny;
+    }
+
+    private void vCycle() {
+        // the box of solved tiles, in level 0 cells
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < this.solvedTileCount; i++) {
+            final int tile = this.solvedTiles[i];
+            final int x0 = (tile % this.tilesPerRow) << TILE_SHIFT;
+            final int y0 = (tile / this.tilesPerRow) << TILE_SHIFT;
+            minX = Math.min(minX, x0);
+            minY = Math.min(minY, y0);
+            maxX = Math.max(maxX, x0 + TILE_CELLS - 1);
+            maxY = Math.max(maxY, y0 + TILE_CELLS - 1);
+        }
+
+        for (int s = 0; s < PRE_SWEEPS; s++) {
+            smoothTiles();
+        }
+        residualTiles();
+        restrict(0, minX, minY, maxX, maxY);
+        for (int l = 1; l < this.levels; l++) {
+            final int x0 = Math.max((minX >> l) - 1, 0);
+            final int y0 = Math.max((minY >> l) - 1, 0);
+            final int x1 = Math.min((maxX >> l) + 1, this.levelWidth[l] - 1);
+            final int y1 = Math.min((maxY >> l) + 1, this.levelHeight[l] - 1);
+            // corrections start from zero, and stay zero outside the box
+            Arrays.fill(this.solution[l], 0f);
+            if (l == this.levels - 1) {
+                for (int s = 0; s < COARSEST_SWEEPS; s++) {
+                    smooth(l, x0, y0, x1, y1);
+                }
+                break;
+            }
+            for (int s = 0; s < PRE_SWEEPS; s++) {
+                smooth(l, x0, y0, x1, y1);
+            }
+            residual(l, x0, y0, x1, y1);
+            restrict(l, x0, y0, x1, y1);
+        }
+        for (int l = this.levels - 2; l > 0; l--) {
+            final int x0 = Math.max((minX >> l) - 1, 0);
+            final int y0 = Math.max((minY >> l) - 1, 0);
+            final int x1 = Math.min((maxX >> l) + 1, this.levelWidth[l] - 1);
+            final int y1 = Math.min((maxY >> l) + 1, this.levelHeight[l] - 1);
+            prolong(l, x0, y0, x1, y1);
+            for (int s = 0; s < POST_SWEEPS; s++) {
+                smooth(l, x0, y0, x1, y1);
+            }
+        }
+        prolongTiles();
+        for (int s = 0; s < POST_SWEEPS; s++) {
+            smoothTiles();
+        }
+    }
+
+    // One red-black Gauss-Seidel sweep over the solved tiles of level 0.
+    // Cells outside them stay ambient.
+    private void smoothTiles() {
+        for (int color = 0; color < 2; color++) {
+            for (int i = 0; i < this.solvedTileCount; i++) {
+                final int tile = this.solvedTiles[i];
+                final int x0 = (tile % this.tilesPerRow) << TILE_SHIFT;
+                final int y0 = (tile / this.tilesPerRow) << TILE_SHIFT;
+                relax(0, color, x0, y0, x0 + TILE_CELLS - 1, y0 + TILE_CELLS - 1);
+            }
+        }
+    }
+
+    private void smooth(final int l, final int x0, final int y0, final int x1, final int y1) {
+        relax(l, 0, x0, y0, x1, y1);
+        relax(l, 1, x0, y0, x1, y1);
+    }
+
+    // Solves every cell of one color in the box for its own value
+    private void relax(final int l, final int color, final int x0, final int y0, final int x1, final int y1) {
+        final float[] u = this.solution[l];
+        final float[] f = this.rhs[l];
+        final int w = this.levelWidth[l];
+        final int h = this.levelHeight[l];
+        final float a = this.diffusion[l];
+        final float inverseDiagonal = 1f / (1f + COOLING + 4f * a);
+        for (int y = y0; y <= y1; y++) {
+            final int row = y * w;
+            for (int x = x0 + ((x0 + y + color) & 1); x <= x1; x += 2) {
+                final int i = row + x;
+                final float around = (x > 0 ? u[i - 1] : 0f) + (x < w - 1 ? u[i + 1] : 0f)
+                    + (y > 0 ? u[i - w] : 0f) + (y < h - 1 ? u[i + w] : 0f);
+                u[i] = (f[i] + a * around) * inverseDiagonal;
+            }
+        }
+    }
+
+    private void residualTiles() {
+        for (int i = 0; i < this.solvedTileCount; i++) {
+            final int tile = this.solvedTiles[i];
+            final int x0 = (tile % this.tilesPerRow) << TILE_SHIFT;
+            final int y0 = (tile / this.tilesPerRow) << TILE_SHIFT;
+            residual(0, x0, y0, x0 + TILE_CELLS - 1, y0 + TILE_CELLS - 1);
+        }
+    }
+
+    private void residual(final int l, final int x0, final int y0, final int x1, final int y1) {
+        final float[] u = this.solution[l];
+        final float[] f = this.rhs[l];
+        final float[] r = this.residual[l];
+        final int w = this.levelWidth[l];
+        final int h = this.levelHeight[l];
+        final float a = this.diffusion[l];
+        final float diagonal = 1f + COOLING + 4f * a;
+        for (int y = y0; y <= y1; y++) {
+            final int row = y * w;
+            for (int x = x0; x <= x1; x++) {
+                final int i = row + x;
+                final float around = (x > 0 ? u[i - 1] : 0f) + (x < w - 1 ? u[i + 1] : 0f)
+                    + (y > 0 ? u[i - w] : 0f) + (y < h - 1 ? u[i + w] : 0f);
+                r[i] = f[i] - diagonal * u[i] + a * around;
+            }
+        }
+    }
+
+    // Averages the residual of level l in the box into the right hand side
+    // of level l + 1, which is ambient everywhere else
+    private void restrict(final int l, final int x0, final int y0, final int x1, final int y1) {
+        final float[] r = this.residual[l];
+        final float[] coarse = this.rhs[l + 1];
+        final int w = this.levelWidth[l];
+        final int cw = this.levelWidth[l + 1];
+        Arrays.fill(coarse, 0f);
+        for (int cy = y0 >> 1; cy <= y1 >> 1; cy++) {
+            for (int cx = x0 >> 1; cx <= x1 >> 1; cx++) {
+                // level 0 has residuals only in the solved tiles
+                if (l == 0 && !this.isTileSolved[((2 * cy) >> TILE_SHIFT) * this.tilesPerRow
+                    + ((2 * cx) >> TILE_SHIFT)]) {
+                    continue;
+                }
+                final int i = (2 * cy) * w + 2 * cx;
+                coarse[cy * cw + cx] = 0.25f * (r[i] + r[i + 1] + r[i + w] + r[i + w + 1]);
+            }
+        }
+    }
+
+    // Adds the correction of level l + 1 to the box of level l
+    private void prolong(final int l, final int x0, final int y0, final int x1, final int y1) {
+        final float[] u = this.solution[l];
+        final float[] coarse = this.solution[l + 1];
+        final int w = this.levelWidth[l];
+        final int cw = this.levelWidth[l + 1];
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                u[y * w + x] += coarse[(y >> 1) * cw + (x >> 1)];
+            }
+        }
+    }
+
+    private void prolongTiles() {
+        for (int i = 0; i < this.solvedTileCount; i++) {
+            final int tile = this.solvedTiles[i];
+            final int x0 = (tile % this.tilesPerRow) << TILE_SHIFT;
+            final int y0 = (tile / this.tilesPerRow) << TILE_SHIFT;
+            prolong(0, x0, y0, x0 + TILE_CELLS - 1, y0 + TILE_CELLS - 1);
+        }
+    }
+
+    private void clear(final float[] values, final int l, final int x0, final int y0, final int x1, final int y1) {
+        final int w = this.levelWidth[l];
+        for (int y = y0; y <= y1; y++) {
+            Arrays.fill(values, y * w + x0, y * w + x1 + 1, 0f);
+        }
+    }
+
+    // Clamps undershoots and puts tiles that went cold back to ambient
+    private void settleTiles() {
+        final float[] t = this.solution[0];
+        for (int i = 0; i < this.solvedTileCount; i++) {
+            final int tile = this.solvedTiles[i];
+            final int x0 = (tile % this.tilesPerRow) << TILE_SHIFT;
+            final int y0 = (tile / this.tilesPerRow) << TILE_SHIFT;
+            float max = 0f;
+            for (int y = y0; y < y0 + TILE_CELLS; y++) {
+                final int row = y * this.width;
+                for (int x = x0; x < x0 + TILE_CELLS; x++) {
+                    if (t[row + x] < 0f) {
+                        t[row + x] = 0f;
+                    } else if (t[row + x] > max) {
+                        max = t[row + x];
+                    }
+                }
+            }
+            this.isTileActive[tile] = max >= COLD;
+            if (max < COLD) {
+                clear(t, 0, x0, y0, x0 + TILE_CELLS - 1, y0 + TILE_CELLS - 1);
+            }
+        }
+    }
+
+    // Puts flammable pixels of cells hot enough to ignite them into the sim
+    // box of their chunk
+    private void wakeFlammable() {
+        final float[] t = this.solution[0];
+        for (int i = 0; i < this.solvedTileCount; i++) {
+            final int tile = this.solvedTiles[i];
+            if (!this.isTileActive[tile]) {
+                continue;
+            }
+            final int tx = tile % this.tilesPerRow;
+            final int ty = tile / this.tilesPerRow;
+            final Chunk chunk = this.map.getChunk(tx, ty);
+            for (int y = ty << TILE_SHIFT; y < (ty + 1) << TILE_SHIFT; y++) {
+                for (int x = tx << TILE_SHIFT; x < (tx + 1) << TILE_SHIFT; x++) {
+                    if (t[y * this.width + x] >= IGNITION_TEMPERATURE && hasFlammable(x, y)) {
+                        final int px = x << CELL_SHIFT;
+                        final int py = y << CELL_SHIFT;
+                        chunk.wake();
+                        chunk.markSim(px, py, px + CELL_SIZE - 1, py + CELL_SIZE - 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean hasFlammable(final int cellX, final int cellY) {
+        for (int y = cellY << CELL_SHIFT; y < (cellY + 1) << CELL_SHIFT; y++) {
+            for (int x = cellX << CELL_SHIFT; x < (cellX + 1) << CELL_SHIFT; x++) {
+                if (Material.FLAMMABILITY[this.pixels[Map.index(x, y)] >>> Material.ID_SHIFT] != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // The Map window moved by whole chunks - move the heat along with it.
+    // Heat of chunks leaving the window is dropped.
+    private void followScroll() {
+        final int dcx = this.map.getOriginChunkX() - this.originChunkX;
+        final int dcy = this.map.getOriginChunkY() - this.originChunkY;
+        if (dcx == 0 && dcy == 0) {
+            return;
+        }
+        this.originChunkX += dcx;
+        this.originChunkY += dcy;
+        final float[] t = this.solution[0];
+        System.arraycopy(t, 0, this.scrollScratch, 0, t.length);
+        Arrays.fill(t, 0f);
+        Arrays.fill(this.heat, 0f);
+        final int dx = dcx << TILE_SHIFT;
+        final int dy = dcy << TILE_SHIFT;
+        for (int y = 0; y < this.height; y++) {
+            final int fromY = y + dy;
+            if (fromY < 0 || fromY >= this.height) {
+                continue;
+            }
+            final int x0 = Math.max(0, -dx);
+            final int x1 = Math.min(this.width, this.width - dx);
+            if (x0 < x1) {
+                System.arraycopy(this.scrollScratch, fromY * this.width + x0 + dx, t, y * this.width + x0, x1 - x0);
+            }
+        }
+        // active again wherever anything arrived
+        Arrays.fill(this.isTileActive, true);
+    }
+}
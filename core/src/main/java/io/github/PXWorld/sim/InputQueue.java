@@ -0,0 +1,210 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.BrushShape;
+import io.github.PXWorld.map.Map;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Input commands from the render thread to the simulation thread.
+
+    Input handlers never touch the Map - they push small fixed-size records
+    into a preallocated ring, and the simulation applies everything queued
+    at the start of its next tick, so a tick never sees half of an input.
+    One producer (the render thread) and one consumer (the simulation
+    thread): each side owns one index and publishes it with an ordered
+    store, no locks and no allocation. When the ring is full offer*()
+    returns false and the command is dropped.
+
+    Draining coalesces what it can: a stroke continuing another one in the
+    same direction with the same brush becomes one longer stroke, repeated
+    stamps on the same spot are dropped, and consecutive scrolls add up.
+ */
+public class InputQueue {
+    private static final int CMD_PAINT = 1;
+    private static final int CMD_SCROLL = 2;
+    private static final int CMD_SAVE = 3;
+    private static final int CMD_EXPLODE = 4;
+
+    // ints per command: type and up to 7 arguments
+    private static final int RECORD = 8;
+
+    private static final BrushShape[] SHAPES = BrushShape.values();
+
+    private final int[] ring;
+    private final int capacity;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(); // next command to apply, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next free record, written by the producer
+    private long producerHead = 0; // producer's last look at head
+
+    // Consumer side: stroke and scroll held back for coalescing
+    private boolean hasStroke = false;
+    private int strokeX0, strokeY0, strokeX1, strokeY1, strokeRadius, strokeShape, strokePixel;
+    private int scrollX = 0;
+    private int scrollY = 0;
+
+    private int applied = 0;
+    private int coalesced = 0;
+
+    // capacity is rounded up to a power of two
+    public InputQueue(final int capacity) {
+        int c = 1;
+        while (c < capacity) {
+            c <<= 1;
+        }
+        this.capacity = c;
+        this.mask = c - 1;
+        this.ring = new int[c * RECORD];
+    }
+
+    // Producer
+
+    public boolean offerPaint(final int x0, final int y0, final int x1, final int y1, final int radius,
+                              final BrushShape shape, final int pixelData) {
+        return offer(CMD_PAINT, x0, y0, x1, y1, radius, shape.ordinal(), pixelData);
+    }
+
+    public boolean offerScroll(final int dcx, final int dcy) {
+        return offer(CMD_SCROLL, dcx, dcy, 0, 0, 0, 0, 0);
+    }
+
+    public boolean offerSave() {
+        return offer(CMD_SAVE, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    // strength is the speed of the fastest pixel thrown, in cells per tick
+    public boolean offerExplosion(final int x, final int y, final int radius, final int strength) {
+        return offer(CMD_EXPLODE, x, y, radius, strength, 0, 0, 0);
+    }
+
+    private boolean offer(final int type, final int a, final int b, final int c, final int d,
+                          final int e, final int f, final int g) {
+        final long t = this.tail.get();
+        if (t - this.producerHead >= this.capacity) {
+            this.producerHead = this.head.get();
+            if (t - this.producerHead >= this.capacity) {
+                return false;
+            }
+        }
+        final int i = (int)(t & this.mask) * RECORD;
+        final int[] r = this.ring;
+        r[i] = type;
+        r[i + 1] = a;
+        r[i + 2] = b;
+        r[i + 3] = c;
+        r[i + 4] = d;
+        r[i + 5] = e;
+        r[i + 6] = f;
+        r[i + 7] = g;
+        this.tail.lazySet(t + 1); // publishes the record
+        return true;
+    }
+
+    // Consumer
+
+    // Applies every command queued so far. Caller holds the Map lock.
+    public void applyTo(final Map map, final Particles particles) {
+        long h = this.head.get();
+        final long t = this.tail.get();
+        final int[] r = this.ring;
+        while (h < t) {
+            final int i = (int)(h & this.mask) * RECORD;
+            switch (r[i]) {
+                case CMD_PAINT: {
+                    flushScroll(map);
+                    queueStroke(map, r[i + 1], r[i + 2], r[i + 3], r[i + 4], r[i + 5], r[i + 6], r[i + 7]);
+                    break;
+                }
+                case CMD_SCROLL: {
+                    flushStroke(map);
+                    if (this.scrollX != 0 || this.scrollY != 0) {
+                        this.coalesced++;
+                    }
+                    this.scrollX += r[i + 1];
+                    this.scrollY += r[i + 2];
+                    break;
+                }
+                case CMD_SAVE: {
+                    flushStroke(map);
+                    flushScroll(map);
+                    map.save();
+                    break;
+                }
+                case CMD_EXPLODE: {
+                    flushStroke(map);
+                    flushScroll(map);
+                    particles.explode(r[i + 1], r[i + 2], r[i + 3], r[i + 4]);
+                    break;
+                }
+                default: {
+                }
+            }
+            this.applied++;
+            h++;
+        }
+        flushStroke(map);
+        flushScroll(map);
+        this.head.lazySet(h); // hands the records back to the producer
+    }
+
+    private void queueStroke(final Map map, final int x0, final int y0, final int x1, final int y1,
+                             final int radius, final int shape, final int pixel) {
+        if (this.hasStroke && radius == this.strokeRadius && shape == this.strokeShape
+            && pixel == this.strokePixel && x0 == this.strokeX1 && y0 == this.strokeY1) {
+            if (x1 == x0 && y1 == y0) {
+                this.coalesced++; // stamp on the end of the stroke
+                return;
+            }
+            final int ax = this.strokeX1 - this.strokeX0;
+            final int ay = this.strokeY1 - this.strokeY0;
+            final int bx = x1 - x0;
+            final int by = y1 - y0;
+            // the held stroke is a single stamp, or the new one goes on in its direction
+            if ((ax == 0 && ay == 0) || ((long)ax * by == (long)ay * bx && (long)ax * bx + (long)ay * by > 0)) {
+                this.strokeX1 = x1;
+                this.strokeY1 = y1;
+                this.coalesced++;
+                return;
+            }
+        }
+        flushStroke(map);
+        this.hasStroke = true;
+        this.strokeX0 = x0;
+        this.strokeY0 = y0;
+        this.strokeX1 = x1;
+        this.strokeY1 = y1;
+        this.strokeRadius = radius;
+        this.strokeShape = shape;
+        this.strokePixel = pixel;
+    }
+
+    private void flushStroke(final Map map) {
+        if (!this.hasStroke) {
+            return;
+        }
+        map.paintStroke(this.strokeX0, this.strokeY0, this.strokeX1, this.strokeY1,
+            this.strokeRadius, SHAPES[this.strokeShape], this.strokePixel);
+        this.hasStroke = false;
+    }
+
+    private void flushScroll(final Map map) {
+        if (this.scrollX == 0 && this.scrollY == 0) {
+            return;
+        }
+        map.scrollBy(this.scrollX, this.scrollY);
+        this.scrollX = 0;
+        this.scrollY = 0;
+    }
+
+    // Commands applied so far, consumer side
+    public int getApplied() {
+        return this.applied;
+    }
+
+    // Commands merged into another one instead of being applied on their own
+    public int getCoalesced() {
+        return this.coalesced;
+    }
+}
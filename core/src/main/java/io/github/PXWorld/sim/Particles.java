@@ -0,0 +1,345 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+
+/*
+    Pixels flying freely through the air.
+
+    A particle is a pixel lifted out of the Map - by an explosion, or spawned
+    by whatever wants pixels in flight - with a position and a velocity in
+    map cells. Particles are a fixed pool of parallel primitive arrays, so a
+    particle is an index and not an object: spawning, moving and removing
+    them allocates nothing. Removal moves the last particle into the hole.
+
+    Every tick has two passes:
+        1. integrate - gravity and drag, then a march along the path of the
+           tick in steps of at most one cell until the particle leaves the
+           map or runs into anything but air. Only reads the Map, so the
+           particles are cut into slices updated in parallel (ChunkPhases).
+        2. settle - serially, in pool order, every particle that ran into
+           something is written back into the last free cell on its path
+           and marked changed. When earlier particles took that cell this
+           tick, it goes back along its path to the last cell still free,
+           or else up through loose material it is buried in, or to the
+           side - never through anything that holds its place. A particle
+           with none of these free bounces back and flies on, and after
+           MAX_BOUNCES of those is dropped with its pixel, the same as the
+           ones leaving the map.
+    The result doesn't depend on the number of threads.
+
+    Positions are in map window coordinates and follow Map.scrollBy. Pixels
+    in flight are not part of the Map, so saving the world leaves them out.
+ */
+public final class Particles {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    // Cells per tick
+    private static final float GRAVITY = 0.15f;
+    private static final float DRAG = 0.99f;
+    private static final float MAX_SPEED = 8f;
+    // Cells at least this heavy stay put when something explodes next to them
+    private static final int MAX_LIFTED_DENSITY = 200;
+    // A particle that finds no free cell where it lands flies back at this
+    // fraction of its speed, up to this many times before it is dropped
+    private static final float BOUNCE = 0.5f;
+    private static final int MAX_BOUNCES = 4;
+    // Slices shorter than this are not worth a task
+    private static final int MIN_SLICE = 2048;
+
+    private static final byte FLYING = 0;
+    private static final byte LANDED = 1;
+    private static final byte LOST = 2;
+
+    private final Map map;
+    private final int[] pixels;
+    private final ChunkPhases phases;
+    private final ChunkPhases.SliceStep integrateStep = this::integrate;
+
+    private final int capacity;
+    private final float[] x;
+    private final float[] y;
+    private final float[] vx;
+    private final float[] vy;
+    private final int[] pixel;
+    private final byte[] state;
+    private final byte[] pathSteps; // cells moved during the last integrate
+    private final byte[] bounces;
+    private int count = 0;
+
+    private int landedPixels = 0; // written back during the last tick
+    private int originChunkX;
+    private int originChunkY;
+
+    Particles(final Map map, final ChunkPhases phases, final int capacity) {
+        this.map = map;
+        this.pixels = map.getPixels();
+        this.phases = phases;
+        this.capacity = capacity;
+        this.x = new float[capacity];
+        this.y = new float[capacity];
+        this.vx = new float[capacity];
+        this.vy = new float[capacity];
+        this.pixel = new int[capacity];
+        this.state = new byte[capacity];
+        this.pathSteps = new byte[capacity];
+        this.bounces = new byte[capacity];
+        this.originChunkX = map.getOriginChunkX();
+        this.originChunkY = map.getOriginChunkY();
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    // Pixels that landed back in the Map during the last tick
+    public int getLandedPixels() {
+        return this.landedPixels;
+    }
+
+    // Adds a particle at map position x,y. Returns false when the pool is full.
+    // Caller holds the Map lock.
+    public boolean spawn(final float x, final float y, final float vx, final float vy, final int pixelData) {
+        followScroll();
+        return add(x, y, vx, vy, pixelData);
+    }
+
+    private boolean add(final float x, final float y, final float vx, final float vy, final int pixelData) {
+        if (this.count == this.capacity) {
+            return false;
+        }
+        final int i = this.count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+        this.pixel[i] = pixelData & ~Material.STATE_TRANSIENT;
+        this.state[i] = FLYING;
+        this.bounces[i] = 0;
+        return true;
+    }
+
+    // Lifts every cell within radius of cx,cy that is not air and lighter
+    // than MAX_LIFTED_DENSITY out of the Map, throwing it away from the
+    // centre at up to strength cells per tick. Cells that don't fit in the
+    // pool stay where they are. Returns the number of cells lifted.
+    // Caller holds the Map lock.
+    public int explode(final int cx, final int cy, final int radius, final float strength) {
+        followScroll();
+        final int minY = Math.max(cy - radius, 0);
+        final int maxY = Math.min(cy + radius, Map.getMapH() - 1);
+        final int minX = Math.max(cx - radius, 0);
+        final int maxX = Math.min(cx + radius, Map.getMapW() - 1);
+        final int r2 = radius * radius;
+        int lifted = 0;
+        for (int py = minY; py <= maxY; py++) {
+            for (int px = minX; px <= maxX; px++) {
+                final int dx = px - cx;
+                final int dy = py - cy;
+                final int d2 = dx * dx + dy * dy;
+                if (d2 > r2) {
+                    continue;
+                }
+                final int index = Map.index(px, py);
+                final int pixelData = this.pixels[index];
+                final int id = Material.getId(pixelData);
+                if (id == Material.AIR || Material.DENSITY[id] >= MAX_LIFTED_DENSITY) {
+                    continue;
+                }
+                final float d = (float)Math.sqrt(d2);
+                final float push = strength * (1f - d / (radius + 1));
+                // away from the centre (the centre cell itself goes up), a
+                // hashed bit of scatter across that and a kick upwards
+                final float dirX = d > 0f ? dx / d : 0f;
+                final float dirY = d > 0f ? dy / d : -1f;
+                final float scatter = 0.25f * push * (((hash(px, py) & 0xFF) - 128) / 128f);
+                final float vx = dirX * push - dirY * scatter;
+                final float vy = dirY * push + dirX * scatter - 0.3f * push;
+                if (!add(px + 0.5f, py + 0.5f, vx, vy, pixelData)) {
+                    return lifted;
+                }
+                this.pixels[index] = Material.makePixel(Material.AIR);
+                this.map.markChanged(px, py);
+                lifted++;
+            }
+        }
+        return lifted;
+    }
+
+    // Called once per tick, after the grid is updated
+    void step() {
+        followScroll();
+        this.landedPixels = 0;
+        if (this.count == 0) {
+            return;
+        }
+        this.phases.runSlices(this.count, MIN_SLICE, this.integrateStep);
+        int i = 0;
+        while (i < this.count) {
+            final byte s = this.state[i];
+            if (s == FLYING) {
+                i++;
+                continue;
+            }
+            if (s == LANDED) {
+                if (settle(i)) {
+                    this.landedPixels++;
+                } else if (this.bounces[i] < MAX_BOUNCES) {
+                    // nowhere to go, back the way it came for another tick
+                    this.bounces[i]++;
+                    this.vx[i] *= -BOUNCE;
+                    this.vy[i] *= -BOUNCE;
+                    this.state[i] = FLYING;
+                    i++;
+                    continue;
+                }
+            }
+            remove(i);
+        }
+    }
+
+    // Integrates particles from - to, see the class comment
+    private void integrate(final int from, final int to) {
+        final int[] px = this.pixels;
+        final int w = Map.getMapW();
+        final int h = Map.getMapH();
+        for (int i = from; i < to; i++) {
+            float vx = this.vx[i] * DRAG;
+            float vy = this.vy[i] * DRAG + GRAVITY;
+            vx = Math.max(-MAX_SPEED, Math.min(MAX_SPEED, vx));
+            vy = Math.max(-MAX_SPEED, Math.min(MAX_SPEED, vy));
+            this.vx[i] = vx;
+            this.vy[i] = vy;
+            float x = this.x[i];
+            float y = this.y[i];
+            final int steps = (int)Math.ceil(Math.max(Math.abs(vx), Math.abs(vy)));
+            final float sx = steps > 0 ? vx / steps : 0f;
+            final float sy = steps > 0 ? vy / steps : 0f;
+            byte s = FLYING;
+            int k = 0;
+            for (; k < steps; k++) {
+                final float nx = x + sx;
+                final float ny = y + sy;
+                if (nx < 0f || ny < 0f || nx >= w || ny >= h) {
+                    s = LOST;
+                    break;
+                }
+                if ((px[Map.index((int)nx, (int)ny)] >>> Material.ID_SHIFT) != Material.AIR) {
+                    s = LANDED;
+                    break;
+                }
+                x = nx;
+                y = ny;
+            }
+            this.x[i] = x;
+            this.y[i] = y;
+            this.state[i] = s;
+            this.pathSteps[i] = (byte)k;
+        }
+    }
+
+    // Writes particle i back into the Map, into the last cell of its path
+    // that is still free. Failing that, the particle is buried in loose
+    // material - the grid moved into its cell, or earlier particles piled
+    // up there - and comes out on top of it: up through everything that
+    // falls, stopping at the first cell that doesn't. Last, the cells on
+    // either side, the side it came from first. Returns false when all of
+    // these are taken.
+    private boolean settle(final int i) {
+        final int steps = (int)Math.ceil(Math.max(Math.abs(this.vx[i]), Math.abs(this.vy[i])));
+        final float sx = steps > 0 ? this.vx[i] / steps : 0f;
+        final float sy = steps > 0 ? this.vy[i] / steps : 0f;
+        for (int k = 0; k <= this.pathSteps[i]; k++) {
+            if (place(i, (int)(this.x[i] - k * sx), (int)(this.y[i] - k * sy))) {
+                return true;
+            }
+        }
+        final int cellX = (int)this.x[i];
+        final int cellY = (int)this.y[i];
+        for (int y = cellY - 1; y >= 0; y--) {
+            final int pixelData = this.pixels[Map.index(cellX, y)];
+            if (place(i, cellX, y)) {
+                return true;
+            }
+            if ((Material.getBehaviour(pixelData) & Material.FLAG_B_FALLING) == 0) {
+                break;
+            }
+        }
+        final int back = this.vx[i] > 0f ? -1 : 1;
+        return place(i, cellX + back, cellY) || place(i, cellX - back, cellY);
+    }
+
+    // Writes the pixel of particle i into x,y if that cell is free air
+    private boolean place(final int i, final int x, final int y) {
+        if (x < 0 || y < 0 || x >= Map.getMapW() || y >= Map.getMapH()) {
+            return false;
+        }
+        final int index = Map.index(x, y);
+        if ((this.pixels[index] >>> Material.ID_SHIFT) != Material.AIR) {
+            return false;
+        }
+        this.pixels[index] = this.pixel[i];
+        this.map.markChanged(x, y);
+        return true;
+    }
+
+    private void remove(final int i) {
+        final int last = --this.count;
+        this.x[i] = this.x[last];
+        this.y[i] = this.y[last];
+        this.vx[i] = this.vx[last];
+        this.vy[i] = this.vy[last];
+        this.pixel[i] = this.pixel[last];
+        this.state[i] = this.state[last];
+        this.pathSteps[i] = this.pathSteps[last];
+        this.bounces[i] = this.bounces[last];
+    }
+
+    // Copies the cells the particles are in and their material ids, for
+    // drawing. xy holds two shorts per particle. Returns the number copied.
+    public int copyTo(final short[] xy, final byte[] ids) {
+        final int n = Math.min(this.count, ids.length);
+        for (int i = 0; i < n; i++) {
+            xy[2 * i] = (short)this.x[i];
+            xy[2 * i + 1] = (short)this.y[i];
+            ids[i] = (byte)(this.pixel[i] >>> Material.ID_SHIFT);
+        }
+        return n;
+    }
+
+    // The Map window moved by whole chunks - move the particles along and
+    // drop the ones now outside of it
+    private void followScroll() {
+        final int dcx = this.map.getOriginChunkX() - this.originChunkX;
+        final int dcy = this.map.getOriginChunkY() - this.originChunkY;
+        if (dcx == 0 && dcy == 0) {
+            return;
+        }
+        this.originChunkX += dcx;
+        this.originChunkY += dcy;
+        final float dx = dcx * Map.CHUNK_WIDTH;
+        final float dy = dcy * Map.CHUNK_HEIGHT;
+        int i = 0;
+        while (i < this.count) {
+            this.x[i] -= dx;
+            this.y[i] -= dy;
+            if (this.x[i] < 0f || this.y[i] < 0f || this.x[i] >= Map.getMapW() || this.y[i] >= Map.getMapH()) {
+                remove(i);
+                continue;
+            }
+            i++;
+        }
+    }
+
+    private static int hash(final int x, final int y) {
+        int h = x * 0x9E3779B1 + y * 0x85EBCA6B;
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        return h;
+    }
+}
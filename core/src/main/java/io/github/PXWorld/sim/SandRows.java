@@ -0,0 +1,67 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Material;
+
+/*
+    Bit-parallel falling rule for one 64 cell row of a chunk.
+
+    Bit lx of a mask stands for column lx of the chunk. Given the granular
+    cells of a row and the blocking cells of the row below (already updated
+    this tick - rows go bottom to top), the moves of the whole row come out of
+    a few shifts and ands:
+        down        below is free
+        down-right  otherwise, if below-right is free
+        down-left   otherwise, if below-left is free
+    Targets taken by one move are blocked for the next, so no two grains land
+    in the same cell. Columns -1 and 64 belong to the neighbour chunks and
+    come in as two flags.
+ */
+final class SandRows {
+    // 1 for materials the kernel moves: falling and blocking, not fluid
+    static final long[] GRANULAR = new long[Material.MAX_MATERIALS];
+    // 1 for the other moving or burning materials, left to the scalar rules
+    static final long[] SPECIAL = new long[Material.MAX_MATERIALS];
+    static final long[] BLOCKING = new long[Material.MAX_MATERIALS];
+
+    static {
+        for (int id = 0; id < Material.MAX_MATERIALS; id++) {
+            final int behaviour = Material.BEHAVIOUR[id];
+            GRANULAR[id] = behaviour == (Material.FLAG_B_FALLING | Material.FLAG_B_BLOCKING) ? 1 : 0;
+            SPECIAL[id] = GRANULAR[id] == 0
+                && (behaviour & (Material.FLAG_B_FALLING | Material.FLAG_B_FLUID
+                    | Material.FLAG_B_BURNING | Material.FLAG_B_FLAMMABLE)) != 0 ? 1 : 0;
+            BLOCKING[id] = (behaviour & Material.FLAG_B_BLOCKING) != 0 ? 1 : 0;
+        }
+    }
+
+    private static final long FIRST = 1L;
+    private static final long LAST = 1L << 63;
+
+    private SandRows() {
+    }
+
+    // Cells falling straight down
+    static long down(final long granular, final long blockedBelow) {
+        return granular & ~blockedBelow;
+    }
+
+    // Cells of stuck moving down-right. taken - cells below already occupied,
+    // including the targets of earlier moves.
+    static long downRight(final long stuck, final long taken, final boolean isRightFree) {
+        // cell lx can go when bit lx + 1 below is free
+        long free = ~(taken >>> 1);
+        if (!isRightFree) {
+            free &= ~LAST;
+        }
+        return stuck & free;
+    }
+
+    // Cells of stuck moving down-left, see downRight
+    static long downLeft(final long stuck, final long taken, final boolean isLeftFree) {
+        long free = ~(taken << 1);
+        if (!isLeftFree) {
+            free &= ~FIRST;
+        }
+        return stuck & free;
+    }
+}
@@ -2,8 +2,9 @@ package io.github.PXWorld.sim;
 
 import io.github.PXWorld.map.Chunk;
 import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
 
-import java.util.List;
+import java.util.Arrays;
 
 /*
     Simulation will notify the renderer
@@ -11,54 +12,454 @@ import java.util.List;
     was some simulation update.
     It modifies chunks.
 
+    The scanning engine: every awake chunk is scanned bottom to top, pixel
+    by pixel, moving pixels in place. Chunks are updated in the checkerboard
+    phases of ChunkPhases. Falling pixels may land up to MAX_FALL_SPEED rows
+    into the chunk below, fluids spread up to their Material.DISPERSION cells
+    into the chunk beside. Both stay short of the far border of that chunk -
+    the only part of it the next chunk of the same phase touches - and cells
+    past the near border are marked with the chunk locked.
+
+    After the phases, FluidLeveller evens out connected bodies of fluid and
+    HeatField spreads the heat burning pixels gave off. Pixels only read the
+    field during the phases, and add heat to cells of their own chunk.
  */
-public class Simulation {
+public class Simulation implements SimulationEngine {
+
+    // Number of ticks without a single move after which a chunk falls asleep.
+    public static final int SLEEP_AFTER_TICKS = 8;
+
+    // Cells per tick a falling pixel can reach. Fits Material.STATE_VELOCITY,
+    // and has to stay below CHUNK_HEIGHT - 1 so a fall never reaches the
+    // bottom row of the chunk below (see fall).
+    public static final int MAX_FALL_SPEED = 8;
+
+    // Columns of a chunk whose grains depend on nothing outside of it
+    private static final long INNER_COLUMNS = -1L >>> 1 & -1L << 1;
+
+    private static final int AIR_PIXEL = Material.makePixel(Material.AIR);
+
+    // Heat a burning pixel adds to its HeatField cell every tick
+    private static final float FIRE_HEAT = 8f;
+    // Below this a fire has nothing left to feed it and soon goes out
+    private static final float BURN_TEMPERATURE = 40f;
+    // Chance out of 256 that a fire goes out in a tick, fed and not
+    private static final int BURN_OUT_CHANCE = 4;
+    private static final int COLD_BURN_OUT_CHANCE = 16;
 
     private boolean isRunning = false;
 
-    // this class should monitor which chunks need updating
+    private final Map map;
+
+    private final ChunkPhases phases;
+    private final ChunkPhases.ChunkStep chunkStep = this::stepChunk;
+
+    // Granular rows through SandRows instead of pixel by pixel
+    private volatile boolean isBitSandEnabled = false;
 
-    public Simulation() {
+    private final FluidLeveller leveller;
+    private int levelledPixels = 0; // moved by the leveller in the last tick
+    private final HeatField heat;
+    private final Particles particles;
+    private int tick = 0;
+
+    // Bit sand (see scanChunkBits), kept across ticks: per chunk row the
+    // granular, special and blocking cells, and the grains known to be at
+    // rest, at (Map.index of the row start) >> CHUNK_SHIFT. Per chunk the rows
+    // changed since their masks were gathered.
+    private final long[] granularRows;
+    private final long[] specialRows;
+    private final long[] blockingRows;
+    private final long[] restingGrains;
+    private final long[] staleRows;
+    private final long[] landedGrains; // per row, grains fallRow has just moved there
+
+    public Simulation(final Map map) {
+        this(map, 1);
+    }
+
+    public Simulation(final Map map, final int threadCount) {
+        this.map = map;
+        this.phases = new ChunkPhases(map, threadCount);
+        this.leveller = new FluidLeveller(map);
+        this.heat = new HeatField(map);
+        this.particles = new Particles(map, this.phases, Particles.DEFAULT_CAPACITY);
+        final int rows = map.getPixels().length >> Map.CHUNK_SHIFT;
+        this.granularRows = new long[rows];
+        this.specialRows = new long[rows];
+        this.blockingRows = new long[rows];
+        this.restingGrains = new long[rows];
+        this.staleRows = new long[rows / Map.CHUNK_HEIGHT];
+        this.landedGrains = new long[rows];
+        Arrays.fill(this.staleRows, -1L); // another engine may have taken the changes so far
     }
 
     public void start() {
        this.isRunning = true;
     }
 
-    // For now - let's iterate every chunk, no need for premature optimization
-    // Only rendering will be selective
-    // all return chunks needing updating
-    public void step(List<Chunk> chunks) {
-        for (Chunk chunk : chunks) {
-            // TODO: Somehow omit the chunks which don't have anything going on in them.
-            // Remember - some event modifies chunks (and demands update).
-            // If I add something to the chunk, we can notify them.
-            // If pixels fall out of the chunk onto another, that chunk can notify the other or add it to the list of
-            // chunks to update
-            // Maybe we can track how many pixels are there in the chunk.
-            // I think the reason for the weird behaviour (updating in small clusters - chunks)
-            // is because I am not marking the chunks, which pixels are getting transferred to, when they move out of
-            // the current one
-            boolean isDirtyChunk = false;
-            chunk.setIsDirty(isDirtyChunk);
-            final int sx = chunk.getStartX();
-            final int sy = chunk.getStartY();
-            for (int cy = sy + Chunk.chunkHeight - 1; cy >= sy; cy--) {
-                for (int cx = sx; cx < sx + Chunk.chunkWidth; cx++) {
-                    // simulate pixels
-                    // 1. Get behavior
-                    // TODO: Fix sand disappearing when on water that moves down
-                    final int pixelBehaviourData = chunk.getPixelData(cx, cy) & 0x00FF0000;
-                    if ((pixelBehaviourData & Map.FLAG_B_FALLING) == Map.FLAG_B_FALLING) {
-                        isDirtyChunk |= simulateFalling(chunk, cx, cy); // TODO: flag other chunk if the pixel got into it
+    // Selects the falling rule for granular materials. The bit-parallel one
+    // moves grains diagonally into the row below; the scalar one keeps the
+    // original rule, so the two don't produce the same world.
+    public void setBitSandEnabled(final boolean isBitSandEnabled) {
+        this.isBitSandEnabled = isBitSandEnabled;
+    }
+
+    public boolean getIsBitSandEnabled() {
+        return this.isBitSandEnabled;
+    }
+
+    @Override
+    public int getThreadCount() {
+        return this.phases.getThreadCount();
+    }
+
+    @Override
+    public void dispose() {
+        this.phases.dispose();
+    }
+
+    @Override
+    public void step() {
+        this.phases.run(this.chunkStep);
+        this.levelledPixels = this.tick % FluidLeveller.LEVEL_EVERY == 0 ? this.leveller.level() : 0;
+        this.heat.step();
+        this.particles.step();
+        this.tick++;
+    }
+
+    @Override
+    public int getMovedPixels() {
+        return this.phases.getMovedPixels() + this.levelledPixels + this.particles.getLandedPixels();
+    }
+
+    @Override
+    public Particles getParticles() {
+        return this.particles;
+    }
+
+    @Override
+    public int getAwakeChunks() {
+        return this.phases.getAwakeChunks();
+    }
+
+    // Chunks that had something in their sim box during the last tick
+    @Override
+    public int getScannedChunks() {
+        return this.phases.getScannedChunks();
+    }
+
+    // Only awake chunks are scanned, and only inside their sim box. Chunks get
+    // woken up by the Map when pixels are placed in them, or when a pixel moves
+    // next to their border.
+    private void stepChunk(final Chunk chunk) {
+        if (!chunk.getIsAwake()) {
+            chunk.setWasScanned(false);
+            return;
+        }
+        int moved = 0;
+        final boolean isScanning = chunk.beginScan();
+        chunk.setWasScanned(isScanning);
+        if (isScanning) {
+            moved = this.isBitSandEnabled ? scanChunkBits(chunk) : scanChunk(chunk);
+            chunk.endScan();
+        }
+        chunk.updateIdleTicks(moved, SLEEP_AFTER_TICKS);
+    }
+
+    private int scanChunk(final Chunk chunk) {
+        int moved = 0;
+        final int[] pixels = chunk.getChunkPixels();
+        // cx,cy of this chunk map to pixels[rowStart + cx]
+        final int baseIndex = chunk.getOffset() - chunk.getStartX() - (chunk.getStartY() << Map.CHUNK_SHIFT);
+        // bounds are re-read every iteration: moves ahead of the scan grow the box
+        for (int cy = chunk.getScanMaxY(); cy >= chunk.getScanMinY(); cy--) {
+            final int rowStart = baseIndex + (cy << Map.CHUNK_SHIFT);
+            for (int cx = chunk.getScanMinX(); cx <= chunk.getScanMaxX(); cx++) {
+                moved += stepPixel(chunk, pixels, rowStart, cx, cy);
+            }
+        }
+        return moved;
+    }
+
+    // Returns the number of moves the pixel made
+    private int stepPixel(final Chunk chunk, final int[] pixels, final int rowStart, final int cx, final int cy) {
+        // simulate pixels
+        // 1. Get behavior
+        final int pixelData = pixels[rowStart + cx];
+        if ((pixelData & Material.STATE_RESTING) != 0) {
+            return 0; // nothing around it changed since it last failed to move
+        }
+        final int pixelBehaviourData = Material.getBehaviour(pixelData);
+        if ((pixelBehaviourData & (Material.FLAG_B_BURNING | Material.FLAG_B_FLAMMABLE)) != 0) {
+            if ((pixelBehaviourData & Material.FLAG_B_BURNING) != 0) {
+                return simulateBurning(chunk, cx, cy);
+            }
+            if (simulateIgnition(chunk, cx, cy)) {
+                return 1;
+            }
+        }
+        if ((pixelBehaviourData & (Material.FLAG_B_FALLING | Material.FLAG_B_FLUID)) == 0) {
+            return 0;
+        }
+        int moved = 0;
+        if ((pixelBehaviourData & Material.FLAG_B_FALLING) != 0 &&
+            simulateFalling(chunk, cx, cy)) {
+            moved++;
+        }
+        if ((pixelBehaviourData & Material.FLAG_B_FLUID) != 0 &&
+            simulateFluid(chunk, cx, cy)) {
+            moved++;
+        }
+        if (moved == 0) {
+            pixels[rowStart + cx] = (pixelData & ~Material.STATE_VELOCITY) | Material.STATE_RESTING;
+        }
+        return moved;
+    }
+
+    // Same scan, but the granular cells of a row (see SandRows) are moved all
+    // at once from bitmasks of the row and the row below. Everything else -
+    // fluids, other special materials - still goes through stepPixel.
+    // Grains that can fall keep their speed as in scanChunk: a row of them
+    // falls at once in fallRow, and only the ones near the chunk's borders go
+    // through fall one by one.
+    //
+    // The masks of every row are kept across ticks and gathered from the
+    // pixels again only when the row changed since (Chunk.takeChangedRows),
+    // so an unchanged row costs a few shifts and ands. Moves made here update
+    // the masks in place. Grains that failed to move stay out of the kernel
+    // until their row or the row below changes; only the two border columns,
+    // which depend on the neighbour chunks, and the bottom row are always
+    // tried again.
+    private int scanChunkBits(final Chunk chunk) {
+        int moved = 0;
+        final int[] pixels = chunk.getChunkPixels();
+        final int startX = chunk.getStartX();
+        final int startY = chunk.getStartY();
+        final int baseIndex = chunk.getOffset() - startX - (startY << Map.CHUNK_SHIFT);
+        final int rows = chunk.getOffset() >> Map.CHUNK_SHIFT; // masks of row ly at rows + ly
+        final int chunkIndex = chunk.getOffset() >> (2 * Map.CHUNK_SHIFT);
+        long stale = this.staleRows[chunkIndex];
+        for (int cy = chunk.getScanMaxY(); cy >= chunk.getScanMinY(); cy--) {
+            final int ly = cy - startY;
+            // changes since the last scan, and the ones the rows below just made
+            stale |= forgetResting(rows, chunk.takeChangedRows());
+            final int rowStart = baseIndex + (cy << Map.CHUNK_SHIFT);
+            if ((stale & 1L << ly) != 0) {
+                gatherRow(pixels, rowStart + startX, rows + ly);
+                stale &= ~(1L << ly);
+            }
+            final boolean isBottomRow = ly == Map.CHUNK_HEIGHT - 1;
+            if (!isBottomRow && (stale & 1L << (ly + 1)) != 0) {
+                gatherRow(pixels, rowStart + Map.CHUNK_WIDTH + startX, rows + ly + 1);
+                stale &= ~(1L << (ly + 1));
+            }
+            final int minLx = chunk.getScanMinX() - startX;
+            final int maxLx = chunk.getScanMaxX() - startX;
+            final long columns = (-1L >>> (63 - maxLx)) & (-1L << minLx);
+            final long granular = this.granularRows[rows + ly] & ~this.restingGrains[rows + ly] & columns;
+            long special = this.specialRows[rows + ly] & columns;
+            if (granular != 0) {
+                final long below = isBottomRow ? blockingRow(chunk, cy + 1) : this.blockingRows[rows + ly + 1];
+                final long down = SandRows.down(granular, below);
+                long changed = 0L;
+                // straight down as far as their speed takes them, see fall -
+                // away from the chunk's borders the whole row at once
+                long rest = down;
+                if ((down & INNER_COLUMNS) != 0 && ly > 0 && ly < Map.CHUNK_HEIGHT - 2) {
+                    final int maxDrop = Math.min(MAX_FALL_SPEED, Map.CHUNK_HEIGHT - 2 - ly);
+                    // the rows they may fall through, and the one that stops them
+                    long through = stale & (-1L >>> (Map.CHUNK_HEIGHT - 2 - ly - maxDrop)) & (-1L << (ly + 2));
+                    stale &= ~through;
+                    while (through != 0) {
+                        final int r = Long.numberOfTrailingZeros(through);
+                        through &= through - 1;
+                        gatherRow(pixels, rowStart + ((r - ly) << Map.CHUNK_SHIFT) + startX, rows + r);
                     }
-                    if ((pixelBehaviourData & Map.FLAG_B_FLUID) == Map.FLAG_B_FLUID) {
-                        isDirtyChunk |= simulateFluid(chunk, cx, cy); // TODO: flag other chunk if the pixel got into it
+                    rest = fallRow(chunk, pixels, rowStart + startX, rows, ly, maxDrop, down & INNER_COLUMNS)
+                        | down & ~INNER_COLUMNS;
+                }
+                while (rest != 0) {
+                    final int lx = Long.numberOfTrailingZeros(rest);
+                    rest &= rest - 1;
+                    final int toLy = fall(chunk, startX + lx, cy) - startY;
+                    if (toLy < Map.CHUNK_HEIGHT) {
+                        this.granularRows[rows + toLy] |= 1L << lx;
+                        this.blockingRows[rows + toLy] |= 1L << lx;
+                        changed |= 1L << toLy;
                     }
                 }
+                // what is left of the row below after the falls
+                final long stuck = granular & ~down;
+                long taken = down == 0 ? below
+                    : isBottomRow ? blockingRow(chunk, cy + 1) : this.blockingRows[rows + ly + 1];
+                final long right = SandRows.downRight(stuck, taken,
+                    !Material.isBlocking(chunk.getPixelData(startX + Map.CHUNK_WIDTH, cy + 1)));
+                taken |= right << 1;
+                final long left = SandRows.downLeft(stuck & ~right, taken,
+                    !Material.isBlocking(chunk.getPixelData(startX - 1, cy + 1)));
+                moveRow(chunk, right, startX, cy, 1);
+                moveRow(chunk, left, startX, cy, -1);
+                final long movedMask = down | right | left;
+                if (movedMask != 0) {
+                    this.granularRows[rows + ly] &= ~movedMask;
+                    this.blockingRows[rows + ly] &= ~movedMask;
+                    changed |= 1L << ly;
+                }
+                if (!isBottomRow && (right | left) != 0) {
+                    this.granularRows[rows + ly + 1] |= right << 1 | left >>> 1;
+                    this.blockingRows[rows + ly + 1] |= right << 1 | left >>> 1;
+                    changed |= 1L << (ly + 1);
+                }
+                // the masks already have these moves
+                chunk.takeChangedRows();
+                forgetResting(rows, changed);
+                if (movedMask == 0 && !isBottomRow) {
+                    rest(pixels, rowStart, startX, rows + ly, stuck & INNER_COLUMNS);
+                }
+                moved += Long.bitCount(movedMask);
+            }
+            // left to right, the same order as scanChunk
+            while (special != 0) {
+                final int cx = startX + Long.numberOfTrailingZeros(special);
+                special &= special - 1;
+                moved += stepPixel(chunk, pixels, rowStart, cx, cy);
             }
-            chunk.setIsDirty(isDirtyChunk);
         }
+        this.staleRows[chunkIndex] = stale | forgetResting(rows, chunk.takeChangedRows());
+        return moved;
+    }
+
+    // Falls the grains of mask in row ly as fall does, reading the masks of
+    // the rows below instead of the pixels, and marks every row once. A grain
+    // lands at most maxDrop rows down, leaving the cells around it inside the
+    // chunk; the ones that could fall further are returned for fall.
+    private long fallRow(final Chunk chunk, final int[] pixels, final int rowFirst, final int rows, final int ly,
+                         final int maxDrop, final long mask) {
+        long left = 0L;
+        long fallen = 0L;
+        long landedRows = 0L;
+        long m = mask;
+        while (m != 0) {
+            final long bit = m & -m;
+            m &= m - 1;
+            final int from = rowFirst + Long.numberOfTrailingZeros(bit);
+            final int speed = Math.min(Material.getVelocity(pixels[from]) + 1, MAX_FALL_SPEED);
+            int drop = 1;
+            while (drop < speed && drop < maxDrop && (this.blockingRows[rows + ly + drop + 1] & bit) == 0) {
+                drop++;
+            }
+            if (drop < speed && (this.blockingRows[rows + ly + drop + 1] & bit) == 0) {
+                left |= bit;
+                continue;
+            }
+            // stopped or at full speed, either way its speed is how far it went
+            pixels[from + (drop << Map.CHUNK_SHIFT)] = Material.withVelocity(pixels[from], drop);
+            pixels[from] = AIR_PIXEL;
+            this.landedGrains[rows + ly + drop] |= bit;
+            landedRows |= 1L << (ly + drop);
+            fallen |= bit;
+        }
+        if (fallen != 0) {
+            markRow(chunk, pixels, rowFirst, chunk.getStartY() + ly, fallen);
+            long r = landedRows;
+            while (r != 0) {
+                final int toLy = Long.numberOfTrailingZeros(r);
+                r &= r - 1;
+                final long landed = this.landedGrains[rows + toLy];
+                this.landedGrains[rows + toLy] = 0L;
+                this.granularRows[rows + toLy] |= landed;
+                this.blockingRows[rows + toLy] |= landed;
+                this.specialRows[rows + toLy] &= ~landed;
+                markRow(chunk, pixels, rowFirst + ((toLy - ly) << Map.CHUNK_SHIFT), chunk.getStartY() + toLy, landed);
+            }
+            forgetResting(rows, landedRows);
+        }
+        return left;
+    }
+
+    // markChanged for every cell of mask in row y, all at once - the cells
+    // between them are woken up too. The cells around them have to be
+    // inside the chunk.
+    private static void markRow(final Chunk chunk, final int[] pixels, final int rowFirst, final int y, final long mask) {
+        final int minLx = Long.numberOfTrailingZeros(mask);
+        final int maxLx = Long.SIZE - 1 - Long.numberOfLeadingZeros(mask);
+        for (int row = rowFirst - Map.CHUNK_WIDTH; row <= rowFirst + Map.CHUNK_WIDTH; row += Map.CHUNK_WIDTH) {
+            for (int i = row + minLx - 1; i <= row + maxLx + 1; i++) {
+                pixels[i] &= ~Material.STATE_RESTING;
+            }
+        }
+        final int minX = chunk.getStartX() + minLx;
+        final int maxX = chunk.getStartX() + maxLx;
+        chunk.markDirty(minX, y, maxX, y);
+        chunk.wake();
+        chunk.markSim(minX - 1, y - 1, maxX + 1, y + 1);
+    }
+
+    // Masks of one row of a chunk from its pixels, starting at rowFirst
+    private void gatherRow(final int[] pixels, final int rowFirst, final int row) {
+        long granular = 0;
+        long special = 0;
+        long blocking = 0;
+        for (int lx = 0; lx < Map.CHUNK_WIDTH; lx++) {
+            final int id = pixels[rowFirst + lx] >>> Material.ID_SHIFT;
+            granular |= SandRows.GRANULAR[id] << lx;
+            special |= SandRows.SPECIAL[id] << lx;
+            blocking |= SandRows.BLOCKING[id] << lx;
+        }
+        this.granularRows[row] = granular;
+        this.specialRows[row] = special;
+        this.blockingRows[row] = blocking;
+    }
+
+    // Grains resting on a row that changed, and on the row below it, have to
+    // be tried again. Returns changedRows.
+    private long forgetResting(final int rows, final long changedRows) {
+        long r = changedRows | changedRows >>> 1;
+        while (r != 0) {
+            this.restingGrains[rows + Long.numberOfTrailingZeros(r)] = 0L;
+            r &= r - 1;
+        }
+        return changedRows;
+    }
+
+    // Grains of mask in a row where nothing moved are at rest: out of the
+    // kernel from now on, and resting for scanChunk too if it takes over
+    private void rest(final int[] pixels, final int rowStart, final int startX, final int row, final long mask) {
+        long fresh = mask & ~this.restingGrains[row];
+        this.restingGrains[row] |= fresh;
+        while (fresh != 0) {
+            final int i = rowStart + startX + Long.numberOfTrailingZeros(fresh);
+            fresh &= fresh - 1;
+            pixels[i] = (pixels[i] & ~Material.STATE_VELOCITY) | Material.STATE_RESTING;
+        }
+    }
+
+    // Moves every cell of mask in row y one row down and dx to the side.
+    // Sliding off what they landed on, grains lose their falling speed.
+    private void moveRow(final Chunk chunk, long mask, final int startX, final int y, final int dx) {
+        while (mask != 0) {
+            final int x = startX + Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            chunk.setChunkPixel(x, y, chunk.getPixelData(x, y) & ~Material.STATE_VELOCITY);
+            chunk.movePixelTo(x, y, x + dx, y + 1);
+            onPixelMoved(x, y, x + dx, y + 1);
+        }
+    }
+
+    // Blocking cells of row y across the chunk, which may be the top row of
+    // the chunk below or outside the map
+    private static long blockingRow(final Chunk chunk, final int y) {
+        long blocking = 0;
+        for (int lx = 0; lx < Map.CHUNK_WIDTH; lx++) {
+            blocking |= SandRows.BLOCKING[chunk.getPixelData(chunk.getStartX() + lx, y) >>> Material.ID_SHIFT] << lx;
+        }
+        return blocking;
+    }
+
+    private void onPixelMoved(final int fromX, final int fromY, final int toX, final int toY) {
+        this.map.markChanged(fromX, fromY);
+        this.map.markChanged(toX, toY);
     }
 
     private boolean simulateFalling(Chunk c, final int posX, final int posY) {
@@ -66,17 +467,25 @@ public class Simulation {
         final int posYDownFuture = posY + 1;
         final int posXLeftFuture = posX - 1;
         final int posXRightFuture = posX + 1;
-        if ((c.getPixelData(posX, posYDownFuture) & Map.FLAG_B_BLOCKING) != Map.FLAG_B_BLOCKING) {
-            c.movePixelDown(posX, posY);
+        if (!Material.isBlocking(c.getPixelData(posX, posYDownFuture))) {
+            fall(c, posX, posY);
             didMove = true;
         } else {
-            if ((c.getPixelData(posXRightFuture, posYDownFuture) & Map.FLAG_B_BLOCKING) != Map.FLAG_B_BLOCKING) {
-                c.movePixelRight(posX, posY);
+            // blocked - unless by a pixel that is still falling, the speed is gone
+            final int pixelData = c.getPixelData(posX, posY);
+            if ((pixelData & Material.STATE_VELOCITY) != 0
+                && (c.getPixelData(posX, posYDownFuture) & Material.STATE_VELOCITY) == 0) {
+                c.setChunkPixel(posX, posY, pixelData & ~Material.STATE_VELOCITY);
+            }
+            // slide into the free cell below to the side - that cell, not
+            // the one beside the pixel, which may be taken
+            if (!Material.isBlocking(c.getPixelData(posXRightFuture, posYDownFuture))) {
+                slide(c, posX, posY, posXRightFuture);
                 didMove = true;
                 return didMove;
             }
-            if ((c.getPixelData(posXLeftFuture, posYDownFuture) & Map.FLAG_B_BLOCKING) != Map.FLAG_B_BLOCKING) {
-                c.movePixelLeft(posX, posY);
+            if (!Material.isBlocking(c.getPixelData(posXLeftFuture, posYDownFuture))) {
+                slide(c, posX, posY, posXLeftFuture);
                 didMove = true;
                 return didMove;
             }
@@ -84,19 +493,138 @@ public class Simulation {
         return didMove;
     }
 
+    // Moves the pixel at x,y to toX,y + 1, known to be free. Sliding off what
+    // it landed on, it loses its falling speed.
+    private void slide(final Chunk c, final int x, final int y, final int toX) {
+        c.setChunkPixel(x, y, c.getPixelData(x, y) & ~Material.STATE_VELOCITY);
+        c.movePixelTo(x, y, toX, y + 1);
+        this.map.markChanged(x, y);
+        markMovedTo(c, toX, y + 1);
+    }
+
+    // Free fall from x,y, the cell below is known to be free. The pixel gains
+    // one cell per tick of speed up to MAX_FALL_SPEED and moves that far in
+    // one go, stopping on the first blocking cell - then its speed is what it
+    // managed to move, so a falling column keeps falling as one body instead
+    // of every grain starting over behind the one below it. Returns the row
+    // it landed in.
+    private int fall(final Chunk c, final int x, final int y) {
+        final int pixelData = c.getPixelData(x, y);
+        final int speed = Math.min(Material.getVelocity(pixelData) + 1, MAX_FALL_SPEED);
+        int toY = y + 1;
+        while (toY < y + speed && !Material.isBlocking(c.getPixelData(x, toY + 1))) {
+            toY++;
+        }
+        final boolean isStopped = Material.isBlocking(c.getPixelData(x, toY + 1));
+        c.setChunkPixel(x, y, Material.withVelocity(pixelData, isStopped ? toY - y : speed));
+        c.movePixelTo(x, y, x, toY);
+        this.map.markChanged(x, y);
+        markMovedTo(c, x, toY);
+        return toY;
+    }
+
+    // Marks a cell a pixel of chunk c moved into. Cells past the border cells
+    // of a neighbour are marked with the chunk locked: the next chunk of the
+    // same phase may be marking that neighbour's far border at the same time.
+    private void markMovedTo(final Chunk c, final int x, final int y) {
+        if (x < c.getStartX() - 1 || x > c.getStartX() + Map.CHUNK_WIDTH
+            || y > c.getStartY() + Map.CHUNK_HEIGHT) {
+            this.map.markChangedLocked(x, y);
+        } else {
+            this.map.markChanged(x, y);
+        }
+    }
+
+    // A fluid on something spreads along its row: it moves straight to the
+    // nearest cell within its dispersion that it can fall from. With no such
+    // cell it stays - moving around on a flat surface would only keep the
+    // chunk awake; FluidLeveller takes care of the rest. The side tried first
+    // alternates with position and tick, so bodies don't drift to the right.
     private boolean simulateFluid(Chunk c, final int posX, final int posY) {
-        final int posXLeftFuture = posX - 1;
-        final int posXRightFuture = posX + 1;
-        final int posYDownFuture = posY + 1;
-        if ((c.getPixelData(posX, posYDownFuture) & Map.FLAG_B_BLOCKING) == Map.FLAG_B_BLOCKING) {
-            if ((c.getPixelData(posXRightFuture, posY) & Map.FLAG_B_BLOCKING) != Map.FLAG_B_BLOCKING) {
-                c.movePixelRight(posX, posY); // try right and move if empty space
-                return true;
-            } else if ((c.getPixelData(posXLeftFuture, posY) & Map.FLAG_B_BLOCKING) != Map.FLAG_B_BLOCKING) {
-                c.movePixelLeft(posX, posY); // try left and move if empty space
-                return true;
+        if (!Material.isBlocking(c.getPixelData(posX, posY + 1))) {
+            return false;
+        }
+        final int reach = Material.DISPERSION[Material.getId(c.getPixelData(posX, posY))];
+        if (reach == 0) {
+            return false;
+        }
+        final int first = ((posX + posY + this.tick) & 1) == 0 ? 1 : -1;
+        int toX = spreadTo(c, posX, posY, first, reach);
+        if (toX == posX) {
+            toX = spreadTo(c, posX, posY, -first, reach);
+            if (toX == posX) {
+                return false;
+            }
+        }
+        c.movePixelTo(posX, posY, toX, posY);
+        this.map.markChanged(posX, posY);
+        markMovedTo(c, toX, posY);
+        return true;
+    }
+
+    // First free cell over a free cell from x along row y in direction dir,
+    // at most reach cells away. Returns x if there is none.
+    private static int spreadTo(final Chunk c, final int x, final int y, final int dir, final int reach) {
+        for (int i = 1; i <= reach; i++) {
+            final int nx = x + dir * i;
+            if (Material.isBlocking(c.getPixelData(nx, y))) {
+                break;
+            }
+            if (!Material.isBlocking(c.getPixelData(nx, y + 1))) {
+                return nx;
             }
         }
-        return false;
+        return x;
+    }
+
+    // A burning pixel heats its cell and goes out after a while - soon, when
+    // the cell is too cold to be fed by anything around it, or at once, next
+    // to a fluid. Until then it stays in the sim box and keeps the chunk awake.
+    private int simulateBurning(final Chunk c, final int x, final int y) {
+        if (isFluid(c.getPixelData(x - 1, y)) || isFluid(c.getPixelData(x + 1, y))
+            || isFluid(c.getPixelData(x, y - 1)) || isFluid(c.getPixelData(x, y + 1))) {
+            c.destroyPixel(x, y);
+            this.map.markChanged(x, y);
+            return 1;
+        }
+        this.heat.addHeat(x, y, FIRE_HEAT);
+        final int chance = this.heat.sample(x, y) < BURN_TEMPERATURE ? COLD_BURN_OUT_CHANCE : BURN_OUT_CHANCE;
+        if ((random(x, y) & 0xFF) < chance) {
+            c.destroyPixel(x, y);
+            this.map.markChanged(x, y);
+            return 1;
+        }
+        c.wake();
+        c.markSim(x, y, x, y);
+        return 0;
+    }
+
+    // A flammable pixel in a cell past the ignition temperature catches fire
+    // with a chance of its FLAMMABILITY out of 1024 per tick. HeatField keeps
+    // such pixels in the sim box while their cell is hot.
+    private boolean simulateIgnition(final Chunk c, final int x, final int y) {
+        if (this.heat.sample(x, y) < HeatField.IGNITION_TEMPERATURE) {
+            return false;
+        }
+        if ((random(x, y) & 0x3FF) >= Material.FLAMMABILITY[Material.getId(c.getPixelData(x, y))]) {
+            return false;
+        }
+        c.setChunkPixel(x, y, Material.makePixel(Material.FIRE));
+        this.map.markChanged(x, y);
+        return true;
+    }
+
+    private static boolean isFluid(final int pixelData) {
+        return (Material.getBehaviour(pixelData) & Material.FLAG_B_FLUID) != 0;
+    }
+
+    // Bits hashed from a position and the tick. The same in every run and
+    // with any number of threads.
+    private int random(final int x, final int y) {
+        int h = x * 0x9E3779B1 + y * 0x85EBCA6B + this.tick * 0xC2B2AE35;
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        return h;
     }
 }
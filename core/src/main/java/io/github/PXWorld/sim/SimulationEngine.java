@@ -0,0 +1,35 @@
+package io.github.PXWorld.sim;
+
+/*
+    Advances the world held by a Map by one tick at a time.
+
+    Implementations update the Map in place, report every changed cell
+    through Map.markChanged (upload, wake-up and sim boxes) and let chunks
+    fall asleep once nothing moves in them. step() is called with the Map
+    lock held by whoever drives the engine (SimulationThread, the headless
+    runner, benchmarks).
+
+    Every engine carries a pool of Particles, stepped at the end of its tick.
+
+    See EngineType for the available engines.
+ */
+public interface SimulationEngine {
+
+    void step();
+
+    // Pixels moved during the last tick, particles landing included
+    int getMovedPixels();
+
+    // Chunks still awake after the last tick
+    int getAwakeChunks();
+
+    // Chunks that had something to update during the last tick
+    int getScannedChunks();
+
+    int getThreadCount();
+
+    // Pixels in flight
+    Particles getParticles();
+
+    void dispose();
+}
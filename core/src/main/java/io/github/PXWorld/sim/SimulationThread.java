@@ -0,0 +1,104 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.metrics.Metrics;
+import io.github.PXWorld.physics.TerrainOutlines;
+
+import java.util.concurrent.locks.LockSupport;
+
+/*
+    Runs the simulation at a fixed tick rate on its own thread, independent
+    of vsync and the monitor refresh rate. Every tick is published to a
+    FrameExchange, from which the render thread picks up the changes.
+
+    Input arrives through an InputQueue and is applied at the start of a
+    tick. The tick and the publish run while holding the Map lock - anything
+    else touching the map from another thread has to synchronize on the Map
+    as well. Collision outlines of the chunks whose solid cells changed are
+    collected with the tick and traced after the lock is released (see
+    TerrainOutlines).
+ */
+public class SimulationThread implements Runnable {
+
+    // When the simulation falls this far behind, it drops the missed ticks
+    // instead of trying to catch up forever.
+    private static final int MAX_CATCH_UP_TICKS = 5;
+
+    private final Map map;
+    private final SimulationEngine sim;
+    private final FrameExchange frames;
+    private final InputQueue input;
+    private final Metrics metrics; // may be null
+    private final TerrainOutlines terrain; // may be null
+    private final long tickPeriodNanos;
+
+    private volatile boolean isRunning = false;
+    private Thread thread;
+
+    public SimulationThread(final Map map, final SimulationEngine sim, final FrameExchange frames,
+                            final InputQueue input, final Metrics metrics, final TerrainOutlines terrain,
+                            final int ticksPerSecond) {
+        this.map = map;
+        this.sim = sim;
+        this.frames = frames;
+        this.input = input;
+        this.metrics = metrics;
+        this.terrain = terrain;
+        this.tickPeriodNanos = 1_000_000_000L / Math.max(1, ticksPerSecond);
+    }
+
+    public void start() {
+        this.isRunning = true;
+        this.thread = new Thread(this, "PXWorld-simulation");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public void stop() {
+        this.isRunning = false;
+        if (this.thread == null) {
+            return;
+        }
+        LockSupport.unpark(this.thread);
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime();
+        while (this.isRunning) {
+            final long now = System.nanoTime();
+            if (now < nextTick) {
+                LockSupport.parkNanos(nextTick - now);
+                continue;
+            }
+            final long tickNanos;
+            synchronized (this.map) {
+                final long tickStart = System.nanoTime();
+                this.input.applyTo(this.map, this.sim.getParticles());
+                this.sim.step();
+                if (this.terrain != null) {
+                    this.terrain.collect(); // before publish clears the dirty boxes
+                }
+                this.frames.publish(this.map.getAllChunks(), this.sim.getParticles());
+                tickNanos = System.nanoTime() - tickStart;
+            }
+            if (this.terrain != null) {
+                this.terrain.extract();
+            }
+            if (this.metrics != null) {
+                this.metrics.recordTick(tickNanos, this.sim.getAwakeChunks(),
+                    this.sim.getScannedChunks(), this.sim.getMovedPixels());
+            }
+            nextTick += this.tickPeriodNanos;
+            if (now - nextTick > MAX_CATCH_UP_TICKS * this.tickPeriodNanos) {
+                nextTick = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.PXWorld.map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+    Chunks scrolled out of the window, evicted from the store's cache to
+    region files and scrolled back, or saved and loaded by a new Map, come
+    back exactly as they were. Transient state is not saved.
+ */
+public class MapPersistenceTest {
+    // small enough that scrolling the whole window away evicts to disk
+    private static final int CAPACITY = 2;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scrolledAwayChunksComeBack() throws IOException {
+        final ChunkStore store = new ChunkStore(folder.newFolder(), CAPACITY);
+        final Map map = new Map(store);
+        paintScene(map);
+        final int[] before = pixels(map);
+
+        final int chunksAcross = Map.getMapW() / Map.CHUNK_WIDTH;
+        map.scrollBy(2 * chunksAcross, 1);
+        assertTrue(store.getEvictions() > 0);
+        map.scrollBy(-2 * chunksAcross, -1);
+
+        assertEquals(0, map.getOriginChunkX());
+        assertEquals(0, map.getOriginChunkY());
+        assertTrue(store.getDiskLoads() > 0);
+        assertArrayEquals(before, pixels(map));
+        store.close();
+    }
+
+    @Test
+    public void savedWorldLoadsIntoNewMap() throws IOException {
+        final File directory = folder.newFolder();
+        final ChunkStore store = new ChunkStore(directory, CAPACITY);
+        final Map map = new Map(store);
+        paintScene(map);
+        // something out of the window as well
+        map.scrollBy(1, 0);
+        map.paintStroke(20, 200, 200, 200, 3, BrushShape.SQUARE, Material.makePixel(Material.SOIL));
+        map.scrollBy(-1, 0);
+        final int[] before = pixels(map);
+        map.save();
+        store.close();
+
+        final ChunkStore loadedStore = new ChunkStore(directory, CAPACITY);
+        final Map loaded = new Map(loadedStore);
+        assertArrayEquals(before, pixels(loaded));
+        loaded.scrollBy(1, 0);
+        map.scrollBy(1, 0);
+        assertArrayEquals(pixels(map), pixels(loaded));
+        loadedStore.close();
+    }
+
+    private static void paintScene(final Map map) {
+        map.fillRect(30, 40, 120, 60, Material.makePixel(Material.SAND));
+        map.fillRect(60, 100, 200, 110, Material.makePixel(Material.CONCRETE));
+        map.paintStroke(20, 20, 230, 230, 4, BrushShape.CIRCLE, Material.makePixel(Material.WATER));
+        map.paintStroke(140, 30, 140, 220, 2, BrushShape.SQUARE, Material.makePixel(Material.WOOD));
+    }
+
+    // Pixels of the window, row by row, without the transient state
+    private static int[] pixels(final Map map) {
+        final int[] p = new int[Map.getMapW() * Map.getMapH()];
+        for (int y = 0; y < Map.getMapH(); y++) {
+            for (int x = 0; x < Map.getMapW(); x++) {
+                p[y * Map.getMapW() + x] = map.getPixel(x, y) & ~Material.STATE_TRANSIENT;
+            }
+        }
+        return p;
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.PXWorld.physics;
+
+import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+    Outlines of adjacent chunks join up: a surface crossing a chunk border
+    is an open chain on both sides, ending on the same vertex, with no
+    walls or notches at the border. No outline is degenerate, and changing
+    cells at a border traces the neighbours that see them again.
+ */
+public class TerrainOutlinesTest {
+    private static final int CONCRETE = Material.makePixel(Material.CONCRETE);
+    private static final int AIR = Material.makePixel(Material.AIR);
+    private static final int CHUNKS_ACROSS = Map.getMapW() / Map.CHUNK_WIDTH;
+    private static final int FLOOR_Y = 150;
+
+    @Test
+    public void flatFloorIsOneChainPerChunk() {
+        final Map map = new Map();
+        map.fillRect(0, FLOOR_Y, Map.getMapW() - 1, Map.getMapH() - 1, CONCRETE);
+        final float[][] outlines = traceAll(map, new TerrainOutlines(map));
+        // the chunks in the middle of the floor, away from the map border
+        final int row = FLOOR_Y / Map.CHUNK_HEIGHT;
+        for (int column = 1; column < CHUNKS_ACROSS - 1; column++) {
+            final float x = column * Map.CHUNK_WIDTH;
+            // solid below, so the chain runs right to left: ghost, ends, ghost
+            assertArrayEquals("chunk " + column + "," + row, new float[]{
+                Float.NaN, x + Map.CHUNK_WIDTH + 1.5f, FLOOR_Y,
+                x + Map.CHUNK_WIDTH + 0.5f, FLOOR_Y,
+                x + 0.5f, FLOOR_Y,
+                x - 0.5f, FLOOR_Y
+            }, outlines[row * CHUNKS_ACROSS + column], 0f);
+        }
+    }
+
+    @Test
+    public void randomTerrainJoinsUp() {
+        final Map map = new Map();
+        final Random random = new Random(7);
+        for (int y = 0; y < Map.getMapH(); y++) {
+            for (int x = 0; x < Map.getMapW(); x++) {
+                if (random.nextInt(3) == 0) {
+                    map.fillRect(x, y, x, y, AIR);
+                } else if (random.nextInt(2) == 0) {
+                    map.fillRect(x, y, x, y, CONCRETE);
+                }
+            }
+        }
+        final TerrainOutlines outlines = new TerrainOutlines(map);
+        final float[][] traced = traceAll(map, outlines);
+        checkOutlines(traced);
+
+        // boxes over borders and corners of chunks, traced incrementally,
+        // come out as a full trace of the changed map does
+        for (int i = 0; i < 40; i++) {
+            final int x = Map.CHUNK_WIDTH * (1 + random.nextInt(CHUNKS_ACROSS - 1)) - 3 + random.nextInt(5);
+            final int y = Map.CHUNK_HEIGHT * (1 + random.nextInt(CHUNKS_ACROSS - 1)) - 3 + random.nextInt(5);
+            map.fillRect(x, y, x + random.nextInt(3), y + random.nextInt(3), i % 2 == 0 ? AIR : CONCRETE);
+        }
+        final float[][] changed = traceAll(map, outlines);
+        for (int i = 0; i < traced.length; i++) {
+            if (changed[i] == null) {
+                changed[i] = traced[i];
+            }
+        }
+        checkOutlines(changed);
+        final float[][] full = traceAll(map, new TerrainOutlines(map));
+        for (int i = 0; i < full.length; i++) {
+            assertArrayEquals("chunk " + i, full[i], changed[i], 0f);
+        }
+    }
+
+    // Loops have 3 vertices or more, chains 2 plus their ghosts, no segment
+    // has zero length, vertices stay in their chunk (ghosts one cell past
+    // it), and every chain starts where one of a neighbour's ends
+    private static void checkOutlines(final float[][] outlines) {
+        final List<String> starts = new ArrayList<String>();
+        final List<String> ends = new ArrayList<String>();
+        for (int i = 0; i < outlines.length; i++) {
+            final float[] o = outlines[i];
+            // the chunk's cells reach half a cell into its neighbours
+            final float minX = (i % CHUNKS_ACROSS) * Map.CHUNK_WIDTH - 0.5f;
+            final float minY = (i / CHUNKS_ACROSS) * Map.CHUNK_HEIGHT - 0.5f;
+            int start = 0;
+            while (start < o.length) {
+                final boolean isChain = Float.isNaN(o[start]);
+                int end = start + 1;
+                while (end < o.length && !isSeparator(o[end])) {
+                    end++;
+                }
+                final int n = (end - start - 1) / 2;
+                assertTrue("chunk " + i, isChain ? n >= 4 : n >= 3);
+                for (int v = 0; v < n; v++) {
+                    final float x = o[start + 1 + 2 * v];
+                    final float y = o[start + 2 + 2 * v];
+                    final float margin = isChain && (v == 0 || v == n - 1) ? 1f : 0f;
+                    assertTrue("chunk " + i + " " + x + "," + y,
+                        x >= minX - margin && x <= minX + Map.CHUNK_WIDTH + 1f + margin
+                            && y >= minY - margin && y <= minY + Map.CHUNK_HEIGHT + 1f + margin);
+                    if (v > 0 || !isChain) {
+                        final int w = (v + n - 1) % n;
+                        assertTrue("chunk " + i + " " + x + "," + y,
+                            x != o[start + 1 + 2 * w] || y != o[start + 2 + 2 * w]);
+                    }
+                }
+                if (isChain) {
+                    starts.add(o[start + 3] + "," + o[start + 4]);
+                    ends.add(o[end - 4] + "," + o[end - 3]);
+                }
+                start = end;
+            }
+        }
+        assertTrue(!starts.isEmpty());
+        final String[] s = starts.toArray(new String[0]);
+        final String[] e = ends.toArray(new String[0]);
+        Arrays.sort(s);
+        Arrays.sort(e);
+        assertArrayEquals(s, e);
+    }
+
+    private static boolean isSeparator(final float f) {
+        return Float.isNaN(f) || Float.isInfinite(f);
+    }
+
+    // Collects and extracts, then takes the outline of every chunk traced:
+    // per chunk x,y pairs of every outline after a separator, Float.NaN in
+    // front of a chain and Float.POSITIVE_INFINITY in front of a loop.
+    // Null for chunks not traced again.
+    private static float[][] traceAll(final Map map, final TerrainOutlines outlines) {
+        outlines.collect();
+        for (final Chunk c : map.getAllChunks()) {
+            c.clearDirty();
+        }
+        outlines.extract();
+        final float[] vertices = new float[2 * TerrainOutlines.MAX_VERTICES];
+        final int[] ends = new int[TerrainOutlines.MAX_OUTLINES];
+        final boolean[] isChain = new boolean[TerrainOutlines.MAX_OUTLINES];
+        final float[][] result = new float[outlines.getChunkCount()][];
+        for (int i = 0; i < result.length; i++) {
+            final int count = outlines.takeOutline(i, vertices, ends, isChain);
+            if (count < 0) {
+                continue;
+            }
+            final int size = count + (count > 0 ? 2 * ends[count - 1] : 0);
+            result[i] = new float[size];
+            int k = 0;
+            int start = 0;
+            for (int o = 0; o < count; o++) {
+                result[i][k++] = isChain[o] ? Float.NaN : Float.POSITIVE_INFINITY;
+                System.arraycopy(vertices, 2 * start, result[i], k, 2 * (ends[o] - start));
+                k += 2 * (ends[o] - start);
+                start = ends[o];
+            }
+        }
+        return result;
+    }
+}
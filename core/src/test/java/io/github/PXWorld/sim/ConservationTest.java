@@ -0,0 +1,48 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+import io.github.PXWorld.map.Scenario;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/*
+    Falling and flowing moves pixels around, it never creates or destroys
+    them: every engine ends every scenario with as much of each falling
+    material as it started with.
+ */
+public class ConservationTest {
+    private static final int TICKS = 600;
+
+    @Test
+    public void fallingMaterialsAreKept() {
+        for (final EngineType engine : EngineType.values()) {
+            for (final Scenario scenario : Scenario.values()) {
+                final Map map = new Map();
+                scenario.apply(map);
+                final SimulationEngine sim = engine.create(map, 1);
+                final int[] before = countFalling(map);
+                for (int i = 0; i < TICKS; i++) {
+                    sim.step();
+                }
+                sim.dispose();
+                assertArrayEquals(engine + " " + scenario, before, countFalling(map));
+            }
+        }
+    }
+
+    // Pixels per material id, for the materials that fall
+    private static int[] countFalling(final Map map) {
+        final int[] counts = new int[Material.MAX_MATERIALS];
+        for (int y = 0; y < Map.getMapH(); y++) {
+            for (int x = 0; x < Map.getMapW(); x++) {
+                final int pixelData = map.getPixel(x, y);
+                if ((Material.getBehaviour(pixelData) & Material.FLAG_B_FALLING) != 0) {
+                    counts[Material.getId(pixelData)]++;
+                }
+            }
+        }
+        return counts;
+    }
+}
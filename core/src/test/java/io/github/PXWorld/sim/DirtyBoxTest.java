@@ -0,0 +1,64 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Chunk;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+import io.github.PXWorld.map.Scenario;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/*
+    Every cell whose pixel changed during a tick lies inside the dirty box
+    of its chunk - including pixels that crossed into a neighbour chunk -
+    so the renderer uploads everything that moved.
+ */
+public class DirtyBoxTest {
+    private static final int TICKS = 120;
+
+    @Test
+    public void changedCellsAreDirty() {
+        for (final EngineType engine : EngineType.values()) {
+            for (final int threads : new int[]{1, 4}) {
+                final Map map = new Map();
+                Scenario.MIXED.apply(map);
+                final SimulationEngine sim = engine.create(map, threads);
+                final int[] before = new int[Map.getMapW() * Map.getMapH()];
+                for (int t = 0; t < TICKS; t++) {
+                    if (t == TICKS / 2) {
+                        sim.getParticles().explode(Map.getMapW() / 4, Map.getMapH() / 3, 12, 5f);
+                    }
+                    snapshot(map, before);
+                    for (final Chunk c : map.getAllChunks()) {
+                        c.clearDirty();
+                    }
+                    sim.step();
+                    for (int y = 0; y < Map.getMapH(); y++) {
+                        for (int x = 0; x < Map.getMapW(); x++) {
+                            if (visible(map.getPixel(x, y)) != before[y * Map.getMapW() + x]) {
+                                final Chunk c = map.getChunkAt(x, y);
+                                assertTrue(engine + " " + threads + " tick " + t + " at " + x + "," + y,
+                                    x >= c.getDirtyMinX() && x <= c.getDirtyMaxX()
+                                        && y >= c.getDirtyMinY() && y <= c.getDirtyMaxY());
+                            }
+                        }
+                    }
+                }
+                sim.dispose();
+            }
+        }
+    }
+
+    private static void snapshot(final Map map, final int[] dst) {
+        for (int y = 0; y < Map.getMapH(); y++) {
+            for (int x = 0; x < Map.getMapW(); x++) {
+                dst[y * Map.getMapW() + x] = visible(map.getPixel(x, y));
+            }
+        }
+    }
+
+    // What the renderer draws: the pixel without its simulation state
+    private static int visible(final int pixelData) {
+        return pixelData & ~Material.STATE_TRANSIENT;
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Scenario;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+    The same scene has to end up the same no matter how many threads update
+    it: every engine, every scenario, 1 against 4 threads, compared by the
+    hash the headless runner prints.
+ */
+public class EngineDeterminismTest {
+    private static final int TICKS = 300;
+
+    @Test
+    public void threadCountDoesNotChangeTheWorld() {
+        for (final EngineType engine : EngineType.values()) {
+            for (final Scenario scenario : Scenario.values()) {
+                assertEquals(engine + " " + scenario,
+                    run(engine, scenario, 1, false), run(engine, scenario, 4, false));
+            }
+        }
+    }
+
+    @Test
+    public void explosionsDoNotDependOnThreadCount() {
+        for (final EngineType engine : EngineType.values()) {
+            assertEquals(engine.toString(),
+                run(engine, Scenario.SAND_POUR, 1, true), run(engine, Scenario.SAND_POUR, 4, true));
+        }
+    }
+
+    private static long run(final EngineType engine, final Scenario scenario, final int threads,
+                            final boolean isExploding) {
+        final Map map = new Map();
+        scenario.apply(map);
+        final SimulationEngine sim = engine.create(map, threads);
+        for (int i = 0; i < TICKS; i++) {
+            if (isExploding && i == TICKS / 3) {
+                sim.getParticles().explode(Map.getMapW() / 2, Map.getMapH() / 2, 24, 6f);
+            }
+            sim.step();
+        }
+        sim.dispose();
+        return hash(map);
+    }
+
+    // FNV-style hash of the pixels in row-major order, as in HeadlessRunner
+    private static long hash(final Map map) {
+        long h = 0xcbf29ce484222325L;
+        for (int y = 0; y < Map.getMapH(); y++) {
+            for (int x = 0; x < Map.getMapW(); x++) {
+                h ^= map.getPixel(x, y);
+                h *= 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.BrushShape;
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Material;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+    Whatever the queue coalesces, applying it has to leave the Map exactly
+    as calling paintStroke and scrollBy for every command would.
+ */
+public class InputQueueTest {
+    private static final int SAND = Material.makePixel(Material.SAND);
+    private static final int WOOD = Material.makePixel(Material.WOOD);
+
+    private static final BrushShape[] SHAPES = BrushShape.values();
+
+    // x0, y0, x1, y1, radius, shape ordinal, pixel
+    private static final int[][] STROKES = {
+        // a drag along a row in pieces, with repeated stamps at its end
+        {40, 60, 48, 60, 3, 0, SAND},
+        {48, 60, 60, 60, 3, 0, SAND},
+        {60, 60, 60, 60, 3, 0, SAND},
+        {60, 60, 90, 60, 3, 0, SAND},
+        // turning back, then down a diagonal across a chunk border
+        {90, 60, 70, 60, 3, 0, SAND},
+        {70, 60, 80, 70, 2, 1, SAND},
+        {80, 70, 100, 90, 2, 1, SAND},
+        // same path, another material
+        {100, 90, 120, 110, 2, 1, WOOD},
+        // a single stamp, continued
+        {150, 150, 150, 150, 5, 0, WOOD},
+        {150, 150, 150, 170, 5, 0, WOOD}
+    };
+
+    @Test
+    public void coalescedStrokesPaintLikeDirectStrokes() {
+        final InputQueue queue = new InputQueue(64);
+        for (final int[] s : STROKES) {
+            assertTrue(queue.offerPaint(s[0], s[1], s[2], s[3], s[4], SHAPES[s[5]], s[6]));
+        }
+        final Map queued = new Map();
+        queue.applyTo(queued, null);
+
+        final Map direct = new Map();
+        for (final int[] s : STROKES) {
+            direct.paintStroke(s[0], s[1], s[2], s[3], s[4], SHAPES[s[5]], s[6]);
+        }
+
+        assertEquals(STROKES.length, queue.getApplied());
+        assertTrue(queue.getCoalesced() > 0);
+        assertArrayEquals(pixels(direct), pixels(queued));
+    }
+
+    @Test
+    public void scrollsAddUp() {
+        final InputQueue queue = new InputQueue(16);
+        queue.offerPaint(100, 100, 140, 100, 4, BrushShape.SQUARE, WOOD);
+        queue.offerScroll(1, 0);
+        queue.offerScroll(0, 1);
+        queue.offerScroll(1, 0);
+        final Map queued = new Map();
+        queue.applyTo(queued, null);
+
+        final Map direct = new Map();
+        direct.paintStroke(100, 100, 140, 100, 4, BrushShape.SQUARE, WOOD);
+        direct.scrollBy(1, 0);
+        direct.scrollBy(0, 1);
+        direct.scrollBy(1, 0);
+
+        assertEquals(2, queue.getCoalesced());
+        assertEquals(direct.getOriginChunkX(), queued.getOriginChunkX());
+        assertEquals(direct.getOriginChunkY(), queued.getOriginChunkY());
+        assertArrayEquals(pixels(direct), pixels(queued));
+    }
+
+    @Test
+    public void fullQueueDropsCommands() {
+        final InputQueue queue = new InputQueue(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offerScroll(1, 0));
+        }
+        assertFalse(queue.offerScroll(1, 0));
+        queue.applyTo(new Map(), null);
+        assertTrue(queue.offerScroll(1, 0));
+    }
+
+    private static int[] pixels(final Map map) {
+        final int[] p = new int[Map.getMapW() * Map.getMapH()];
+        for (int y = 0; y < Map.getMapH(); y++) {
+            for (int x = 0; x < Map.getMapW(); x++) {
+                p[y * Map.getMapW() + x] = map.getPixel(x, y);
+            }
+        }
+        return p;
+    }
+}
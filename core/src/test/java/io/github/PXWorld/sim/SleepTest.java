@@ -0,0 +1,31 @@
+package io.github.PXWorld.sim;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Scenario;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+    Every scene comes to rest: sand settles, water levels out and every
+    chunk goes to sleep, with every engine. Nothing keeps moving for ever.
+ */
+public class SleepTest {
+    private static final int MAX_TICKS = 6000;
+
+    @Test
+    public void everySceneComesToRest() {
+        for (final EngineType engine : EngineType.values()) {
+            for (final Scenario scenario : Scenario.values()) {
+                final Map map = new Map();
+                scenario.apply(map);
+                final SimulationEngine sim = engine.create(map, 1);
+                for (int i = 0; i < MAX_TICKS && (i == 0 || sim.getAwakeChunks() > 0); i++) {
+                    sim.step();
+                }
+                assertEquals(engine + " " + scenario, 0, sim.getAwakeChunks());
+                sim.dispose();
+            }
+        }
+    }
+}
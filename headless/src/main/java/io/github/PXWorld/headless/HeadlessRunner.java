@@ -0,0 +1,109 @@
+package io.github.PXWorld.headless;
+
+import io.github.PXWorld.map.Map;
+import io.github.PXWorld.map.Scenario;
+import io.github.PXWorld.sim.EngineType;
+import io.github.PXWorld.sim.SimulationEngine;
+
+/*
+    Runs the simulation as fast as possible without a window, GL context
+    or libGDX backend. Builds a Map, seeds a Scenario, runs SimulationEngine.step
+    for the requested number of ticks and reports throughput, activity and
+    a hash of the final world, so runs can be compared across machines and
+    versions.
+
+    Arguments: [--ticks N] [--scenario NAME] [--threads N] [--report-every N]
+               [--engine NAME]
+ */
+public class HeadlessRunner {
+
+    public static void main(String[] args) {
+        int ticks = 10000;
+        Scenario scenario = Scenario.MIXED;
+        int threads = 1;
+        int reportEvery = 0;
+        EngineType engine = EngineType.SCAN;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "--ticks": {
+                    ticks = Integer.parseInt(value);
+                    break;
+                }
+                case "--scenario": {
+                    scenario = Scenario.valueOf(value);
+                    break;
+                }
+                case "--threads": {
+                    threads = Integer.parseInt(value);
+                    break;
+                }
+                case "--report-every": {
+                    reportEvery = Integer.parseInt(value);
+                    break;
+                }
+                case "--engine": {
+                    engine = EngineType.valueOf(value);
+                    break;
+                }
+                default: {
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+                }
+            }
+        }
+
+        final Map map = new Map();
+        scenario.apply(map);
+        final SimulationEngine sim = engine.create(map, threads);
+
+        long totalMoved = 0;
+        int peakMoved = 0;
+        int ticksToRest = -1;
+        final long start = System.nanoTime();
+        for (int tick = 1; tick <= ticks; tick++) {
+            sim.step();
+            final int moved = sim.getMovedPixels();
+            totalMoved += moved;
+            peakMoved = Math.max(peakMoved, moved);
+            if (ticksToRest < 0 && sim.getAwakeChunks() == 0) {
+                ticksToRest = tick;
+            }
+            if (reportEvery > 0 && tick % reportEvery == 0) {
+                System.out.println("tick=" + tick + " moved=" + moved + " awakeChunks=" + sim.getAwakeChunks());
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        sim.dispose();
+
+        final double seconds = elapsed / 1e9;
+        System.out.println("scenario=" + scenario);
+        System.out.println("threads=" + sim.getThreadCount());
+        System.out.println("engine=" + engine);
+        System.out.println("ticks=" + ticks);
+        System.out.println("seconds=" + seconds);
+        System.out.println("ticksPerSecond=" + ticks / seconds);
+        System.out.println("nsPerPixelTick=" + elapsed / ((double)ticks * Map.getMapW() * Map.getMapH()));
+        System.out.println("movedPixelsTotal=" + totalMoved);
+        System.out.println("movedPixelsPerTick=" + (double)totalMoved / ticks);
+        System.out.println("movedPixelsPeak=" + peakMoved);
+        System.out.println("ticksToRest=" + ticksToRest);
+        System.out.println("awakeChunks=" + sim.getAwakeChunks());
+        System.out.println("stateHash=" + Long.toHexString(hash(map)));
+    }
+
+    // FNV-style hash of the pixels in row-major order, whole words at a
+    // time, independent of the storage layout
+    private static long hash(final Map map) {
+        long h = 0xcbf29ce484222325L;
+        for (int y = 0; y < Map.getMapH(); y++) {
+            for (int x = 0; x < Map.getMapW(); x++) {
+                h ^= map.getPixel(x, y);
+                h *= 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+}
@@ -3,6 +3,7 @@ package io.github.PXWorld.lwjgl3;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Application;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3ApplicationConfiguration;
 import io.github.PXWorld.Main;
+import io.github.PXWorld.sim.EngineType;
 
 /** Launches the desktop (LWJGL3) application. */
 public class Lwjgl3Launcher {
@@ -12,12 +13,25 @@ public class Lwjgl3Launcher {
     }
 
     private static Lwjgl3Application createApplication() {
-        return new Lwjgl3Application(new Main(), getDefaultConfiguration());
+        // -Dpxworld.simThreads=N runs the simulation on N threads
+        // -Dpxworld.tickRate=N runs the simulation at N ticks per second
+        // -Dpxworld.engine=NAME picks the simulation engine (see EngineType)
+        return new Lwjgl3Application(
+            new Main(Integer.getInteger("pxworld.simThreads", 1), Integer.getInteger("pxworld.tickRate", 60),
+                EngineType.valueOf(System.getProperty("pxworld.engine", EngineType.SCAN.name()))),
+            getDefaultConfiguration());
     }
 
     private static Lwjgl3ApplicationConfiguration getDefaultConfiguration() {
         Lwjgl3ApplicationConfiguration configuration = new Lwjgl3ApplicationConfiguration();
         configuration.setTitle("PXWorld");
+        // GL 3 lets the renderer stream uploads through pixel buffer objects.
+        // macOS only offers GL 3 as a core profile, which the GLSL 1.x shaders
+        // don't run on. -Dpxworld.gl30=false forces the GL 2 upload path.
+        final boolean isMac = System.getProperty("os.name").toLowerCase().contains("mac");
+        if (Boolean.parseBoolean(System.getProperty("pxworld.gl30", String.valueOf(!isMac)))) {
+            configuration.setOpenGLEmulation(Lwjgl3ApplicationConfiguration.GLEmulation.GL30, 3, 2);
+        }
         //// Vsync limits the frames per second to what your hardware can display, and helps eliminate
         //// screen tearing. This setting doesn't always work on Linux, so the line after is a safeguard.
         configuration.useVsync(true);